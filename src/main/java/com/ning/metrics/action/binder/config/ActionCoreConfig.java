@@ -38,6 +38,7 @@ public interface ActionCoreConfig
     @Default("134217728")
     long getHadoopBlockSize();
 
+    // RowSerializer classes tried first, in order, before the ones discovered via the ServiceLoader
     @Config("action.hadoop.io.row.serializations")
     @Default("")
     String getRowSerializations();
@@ -57,4 +58,92 @@ public interface ActionCoreConfig
     @Config("action.registrar.port")
     @Default("8081")
     int getRegistrarPort();
+
+    // Interval between refreshes of the cached Goodwill schemas, 0 to disable
+    @Config("action.registrar.refresh")
+    // 5 minutes
+    @Default("300000")
+    long getRegistrarRefreshInterval();
+
+    // Interval between connection attempts, while Goodwill is unavailable
+    @Config("action.registrar.retry")
+    // 30 seconds
+    @Default("30000")
+    long getRegistrarRetryInterval();
+
+    // Local (Smile) snapshot of the schemas, refreshed from Goodwill if the registrar is enabled. Empty to disable
+    @Config("action.registrar.snapshot")
+    @Default("")
+    String getRegistrarSnapshot();
+
+    @Config("action.crawler.threads")
+    @Default("16")
+    int getCrawlerThreads();
+
+    // Maximum number of directories listed concurrently for a single request
+    @Config("action.crawler.request.concurrency")
+    @Default("8")
+    int getCrawlerRequestConcurrency();
+
+    // Total number of FileStatus cached, 0 to disable the namenode cache
+    @Config("action.namenode.cache.max.statuses")
+    @Default("100000")
+    long getNamenodeCacheMaxStatuses();
+
+    @Config("action.namenode.cache.ttl")
+    // 10 minutes
+    @Default("600000")
+    long getNamenodeCacheTTL();
+
+    // Cached listings older than this are checked against the directory mtime
+    @Config("action.namenode.cache.revalidate")
+    // 5 seconds
+    @Default("5000")
+    long getNamenodeCacheRevalidate();
+
+    // Shared by all requests. Files waiting for their client don't hold a thread
+    @Config("action.decoder.threads")
+    @Default("32")
+    int getDecoderThreads();
+
+    // Number of files decoded ahead of the client, for a single request
+    @Config("action.decoder.request.files")
+    @Default("4")
+    int getDecoderRequestFiles();
+
+    // Number of decoded rows buffered per file
+    @Config("action.decoder.buffer.rows")
+    @Default("10000")
+    int getDecoderBufferRows();
+
+    // SequenceFiles larger than this are decoded in parallel, one split of this size per thread. 0 to disable
+    @Config("action.decoder.split.size")
+    // 256 MB
+    @Default("268435456")
+    long getDecoderSplitSize();
+
+    // Shared by all requests, separate from action.decoder.threads
+    @Config("action.decoder.split.threads")
+    @Default("16")
+    int getDecoderSplitThreads();
+
+    // Number of splits decoded ahead of the client, for a single file
+    @Config("action.decoder.split.window")
+    @Default("4")
+    int getDecoderSplitWindow();
+
+    // Shared by all .lzf files, separate from action.decoder.threads
+    @Config("action.decoder.lzf.threads")
+    @Default("8")
+    int getDecoderLZFThreads();
+
+    // Number of chunks (up to 64KB each) decompressed ahead of the client, for a single .lzf file
+    @Config("action.decoder.lzf.window")
+    @Default("8")
+    int getDecoderLZFWindow();
+
+    // Number of files whose row count is remembered, to skip them when paging
+    @Config("action.content.row.counts.max")
+    @Default("100000")
+    long getRowCountsMax();
 }
@@ -22,6 +22,9 @@ import com.ning.metrics.action.binder.config.ActionCoreConfig;
 import com.ning.metrics.action.binder.modules.ActionCoreServicesModule;
 import com.ning.metrics.action.binder.modules.HdfsModule;
 import com.ning.metrics.action.healthchecks.HDFSHealthCheck;
+import com.ning.metrics.action.hdfs.data.RowCountCache;
+import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+import com.ning.metrics.action.hdfs.reader.FileStatusCache;
 
 import javax.servlet.ServletContextEvent;
 
@@ -34,6 +37,9 @@ public class ActionCoreGuiceListener extends SetupServer
             .addConfig(ActionCoreConfig.class)
             .addHealthCheck(HDFSHealthCheck.class)
             .addJMXExport(HDFSHealthCheck.class)
+            .addJMXExport(FileStatusCache.class)
+            .addJMXExport(RowCountCache.class)
+            .addJMXExport(RowFileContentsIteratorFactory.class)
             .setAreciboProfile(System.getProperty("action.arecibo.profile", "ning.jmx:name=MonitoringProfile"))
             .addModule(new HdfsModule())
             .addModule(new ActionCoreServicesModule())
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.binder.listeners;
+
+import com.ning.metrics.action.hdfs.reader.HdfsListing;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestEvent;
+import javax.servlet.ServletRequestListener;
+import java.util.Enumeration;
+
+/**
+ * Close the HdfsListings attached to a request (the models rendered by the jsps) once it is done, whether the response
+ * has been fully written or the client went away.
+ * <p/>
+ * Other attributes, even Closeable ones, belong to the container, filters or Jersey and are left alone.
+ */
+public class CloseableAttributesListener implements ServletRequestListener
+{
+    @Override
+    public void requestInitialized(final ServletRequestEvent event)
+    {
+    }
+
+    @Override
+    public void requestDestroyed(final ServletRequestEvent event)
+    {
+        final ServletRequest request = event.getServletRequest();
+
+        final Enumeration names = request.getAttributeNames();
+        while (names.hasMoreElements()) {
+            final Object attribute = request.getAttribute((String) names.nextElement());
+            if (attribute instanceof HdfsListing) {
+                ((HdfsListing) attribute).close();
+            }
+        }
+    }
+}
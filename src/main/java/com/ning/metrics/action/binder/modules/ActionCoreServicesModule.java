@@ -18,7 +18,12 @@ package com.ning.metrics.action.binder.modules;
 
 import com.google.inject.Binder;
 import com.google.inject.Module;
+import com.ning.metrics.action.hdfs.data.RowCountCache;
 import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+import com.ning.metrics.action.hdfs.data.codec.ParallelLZFStreamCodec;
+import com.ning.metrics.action.hdfs.reader.FileStatusCache;
+import com.ning.metrics.action.hdfs.reader.HdfsCrawler;
+import com.ning.metrics.action.hdfs.reader.ParallelContentDecoder;
 import com.ning.metrics.action.schema.Registrar;
 
 public class ActionCoreServicesModule implements Module
@@ -26,7 +31,13 @@ public class ActionCoreServicesModule implements Module
     @Override
     public void configure(Binder binder)
     {
+        binder.bind(RowCountCache.class).asEagerSingleton();
         binder.bind(RowFileContentsIteratorFactory.class).asEagerSingleton();
+        binder.bind(FileStatusCache.class).asEagerSingleton();
+        binder.bind(HdfsCrawler.class).asEagerSingleton();
+        binder.bind(ParallelContentDecoder.class).asEagerSingleton();
+        // Registers itself for .lzf files
+        binder.bind(ParallelLZFStreamCodec.class).asEagerSingleton();
         binder.bind(Registrar.class).toProvider(RegistrarProvider.class).asEagerSingleton();
     }
 }
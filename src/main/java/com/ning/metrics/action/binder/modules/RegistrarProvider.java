@@ -17,19 +17,16 @@
 package com.ning.metrics.action.binder.modules;
 
 import com.ning.metrics.action.binder.config.ActionCoreConfig;
-import com.ning.metrics.action.schema.GoodwillRegistrar;
+import com.ning.metrics.action.schema.AsyncRegistrar;
 import com.ning.metrics.action.schema.NoOpRegistrar;
 import com.ning.metrics.action.schema.Registrar;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.ning.metrics.action.schema.SnapshotRegistrar;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 
 public class RegistrarProvider implements Provider<Registrar>
 {
-    private static final Logger log = LoggerFactory.getLogger(RegistrarProvider.class);
-
     private ActionCoreConfig config;
 
     @Inject
@@ -41,14 +38,13 @@ public class RegistrarProvider implements Provider<Registrar>
     @Override
     public Registrar get()
     {
-        if (config.isRegistrarEnabled()) {
-            try {
-                return new GoodwillRegistrar(config);
-            }
-            catch (Exception e) {
-                log.error("Unable to connect to Goodwill", e);
-                return new NoOpRegistrar();
-            }
+        if (!config.getRegistrarSnapshot().isEmpty()) {
+            // Serve lookups from the local snapshot, kept up to date from Goodwill in the background
+            return new SnapshotRegistrar(config);
+        }
+        else if (config.isRegistrarEnabled()) {
+            // Connect in the background, don't block startup
+            return new AsyncRegistrar(config);
         }
         else {
             return new NoOpRegistrar();
@@ -17,6 +17,7 @@
 package com.ning.metrics.action.endpoint;
 
 import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.RowFilter;
 import com.ning.metrics.action.hdfs.reader.HdfsListing;
 import com.ning.metrics.action.hdfs.reader.HdfsReaderEndPoint;
 import com.ning.metrics.action.hdfs.writer.HdfsWriter;
@@ -28,6 +29,7 @@ import com.yammer.metrics.annotation.Timed;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.fs.FileStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,16 +47,23 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 @Path("/rest/1.0")
 public class HdfsBrowser
 {
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    public static final String APPLICATION_ACTION_ROWS = "application/x-action-rows";
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private final Logger log = LoggerFactory.getLogger(HdfsBrowser.class);
 
     private final ActionCoreConfig config;
@@ -81,6 +90,8 @@ public class HdfsBrowser
      * @param path      path in HDFS to render (directory listing or file), defaults to /
      * @param raw       optional, whether to try to deserialize
      * @param recursive optional, whether to crawl all files under a directory
+     * @param filter    optional, conditions the rows must match (e.g. userId=42), see {@link RowFilter}
+     * @param fields    optional, comma-separated list of the columns to decode
      * @return Viewable to render the jsp
      * @throws IOException HDFS crawling error
      */
@@ -90,7 +101,9 @@ public class HdfsBrowser
     @Timed
     public Viewable getListing(@QueryParam("path") String path,
                                @QueryParam("raw") final boolean raw,
-                               @QueryParam("recursive") final boolean recursive) throws IOException
+                               @QueryParam("recursive") final boolean recursive,
+                               @QueryParam("filter") final List<String> filter,
+                               @QueryParam("fields") final String fields) throws IOException
     {
         log.debug(String.format("Got request for path=[%s], raw=[%s] and recursive=[%s]", path, raw, recursive));
 
@@ -98,19 +111,34 @@ public class HdfsBrowser
             path = "/";
         }
 
-        if (hdfsReader.isDir(path) && !recursive) {
-            return new Viewable("/rest/listing.jsp", hdfsReader.getListing(path));
+        final FileStatus status = resolve(path);
+        if (status.isDir() && !recursive) {
+            return new Viewable("/rest/listing.jsp", hdfsReader.getListing(status));
         }
         else {
+            final RowFilter rowFilter = parseFilter(filter);
             if (raw) {
-                return new Viewable("/rest/contentRaw.jsp", hdfsReader.getListing(path, raw, recursive));
+                return new Viewable("/rest/contentRaw.jsp", hdfsReader.getListing(status, raw, recursive, rowFilter, null));
             }
             else {
-                return new Viewable("/rest/content.jsp", hdfsReader.getListing(path, raw, recursive));
+                return new Viewable("/rest/content.jsp", hdfsReader.getListing(status, raw, recursive, rowFilter, parseFields(fields, rowFilter)));
             }
         }
     }
 
+    /**
+     * Export a listing, with the files content, as JSON.
+     *
+     * @param path      path in HDFS to export (directory listing or file)
+     * @param recursive optional, whether to crawl all files under a directory
+     * @param pretty    optional, whether to pretty print the JSON
+     * @param raw       optional, whether to try to deserialize
+     * @param unordered optional, whether entries can be written in a different order than the listing, for throughput
+     * @param filter    optional, conditions the rows must match (e.g. userId=42), see {@link RowFilter}
+     * @param fields    optional, comma-separated list of the columns to decode
+     * @return StreamingOutput to write the JSON
+     * @throws IOException HDFS crawling error
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/json")
@@ -118,16 +146,142 @@ public class HdfsBrowser
     public StreamingOutput listingToJson(@QueryParam("path") final String path,
                                          @QueryParam("recursive") final boolean recursive,
                                          @QueryParam("pretty") final boolean pretty,
-                                         @QueryParam("raw") final boolean raw) throws IOException
+                                         @QueryParam("raw") final boolean raw,
+                                         @QueryParam("unordered") final boolean unordered,
+                                         @QueryParam("filter") final List<String> filter,
+                                         @QueryParam("fields") final String fields) throws IOException
+    {
+        final RowFilter rowFilter = parseFilter(filter);
+        final HdfsListing hdfsListing = hdfsReader.getListing(resolve(path), raw, recursive, rowFilter, parseFields(fields, rowFilter));
+
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException
+            {
+                hdfsListing.toJson(output, pretty, !unordered);
+            }
+        };
+    }
+
+    /**
+     * Export a listing, with the files content, as Smile (binary JSON, same structure as the JSON export).
+     *
+     * @param path      path in HDFS to export (directory listing or file)
+     * @param recursive optional, whether to crawl all files under a directory
+     * @param raw       optional, whether to try to deserialize
+     * @param unordered optional, whether entries can be written in a different order than the listing, for throughput
+     * @param filter    optional, conditions the rows must match (e.g. userId=42), see {@link RowFilter}
+     * @param fields    optional, comma-separated list of the columns to decode
+     * @return StreamingOutput to write the Smile content
+     * @throws IOException HDFS crawling error
+     */
+    @GET
+    @Produces(APPLICATION_SMILE)
+    @Path("/json")
+    @Timed
+    public StreamingOutput listingToSmile(@QueryParam("path") final String path,
+                                          @QueryParam("recursive") final boolean recursive,
+                                          @QueryParam("raw") final boolean raw,
+                                          @QueryParam("unordered") final boolean unordered,
+                                          @QueryParam("filter") final List<String> filter,
+                                          @QueryParam("fields") final String fields) throws IOException
+    {
+        final RowFilter rowFilter = parseFilter(filter);
+        final HdfsListing hdfsListing = hdfsReader.getListing(resolve(path), raw, recursive, rowFilter, parseFields(fields, rowFilter));
+
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException
+            {
+                hdfsListing.toSmile(output, !unordered);
+            }
+        };
+    }
+
+    /**
+     * Export the rows of a listing in the compact binary format.
+     *
+     * @param path      path in HDFS to export (directory listing or file)
+     * @param recursive optional, whether to crawl all files under a directory
+     * @param raw       optional, whether to try to deserialize
+     * @param unordered optional, whether entries can be written in a different order than the listing, for throughput
+     * @param filter    optional, conditions the rows must match (e.g. userId=42), see {@link RowFilter}
+     * @param fields    optional, comma-separated list of the columns to decode
+     * @return StreamingOutput to write the rows
+     * @throws IOException HDFS crawling error
+     * @see HdfsListing#toBinary(java.io.OutputStream, boolean)
+     */
+    @GET
+    @Produces(APPLICATION_ACTION_ROWS)
+    @Path("/json")
+    @Timed
+    public StreamingOutput listingToBinary(@QueryParam("path") final String path,
+                                           @QueryParam("recursive") final boolean recursive,
+                                           @QueryParam("raw") final boolean raw,
+                                           @QueryParam("unordered") final boolean unordered,
+                                           @QueryParam("filter") final List<String> filter,
+                                           @QueryParam("fields") final String fields) throws IOException
+    {
+        final RowFilter rowFilter = parseFilter(filter);
+        final HdfsListing hdfsListing = hdfsReader.getListing(resolve(path), raw, recursive, rowFilter, parseFields(fields, rowFilter));
+
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException
+            {
+                hdfsListing.toBinary(output, !unordered);
+            }
+        };
+    }
+
+    /**
+     * Export the rows of a listing as newline-delimited JSON, one row per line.
+     *
+     * @param path      path in HDFS to export (directory listing or file)
+     * @param recursive optional, whether to crawl all files under a directory
+     * @param raw       optional, whether to try to deserialize
+     * @param unordered optional, whether entries can be written in a different order than the listing, for throughput
+     * @param offset    optional, number of rows to skip
+     * @param limit     optional, maximum number of rows to export, -1 for no limit
+     * @param withPath  optional, whether to add the path of the file to each row
+     * @param filter    optional, conditions the rows must match (e.g. userId=42), see {@link RowFilter}
+     * @param fields    optional, comma-separated list of the columns to decode
+     * @return StreamingOutput to write the rows
+     * @throws IOException HDFS crawling error
+     * @see HdfsListing#toNdjson(java.io.OutputStream, boolean, long, long, boolean)
+     */
+    @GET
+    @Produces(APPLICATION_NDJSON)
+    @Path("/json")
+    @Timed
+    public StreamingOutput listingToNdjson(@QueryParam("path") final String path,
+                                           @QueryParam("recursive") final boolean recursive,
+                                           @QueryParam("raw") final boolean raw,
+                                           @QueryParam("unordered") final boolean unordered,
+                                           @QueryParam("offset") @DefaultValue("0") final long offset,
+                                           @QueryParam("limit") @DefaultValue("-1") final long limit,
+                                           @QueryParam("withPath") final boolean withPath,
+                                           @QueryParam("filter") final List<String> filter,
+                                           @QueryParam("fields") final String fields) throws IOException
     {
-        final HdfsListing hdfsListing = hdfsReader.getListing(path, raw, recursive);
+        final RowFilter rowFilter = parseFilter(filter);
+        final HdfsListing hdfsListing = hdfsReader.getListing(resolve(path), raw, recursive, rowFilter, parseFields(fields, rowFilter));
 
         return new StreamingOutput()
         {
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException
             {
-                hdfsListing.toJson(output, pretty);
+                try {
+                    hdfsListing.toNdjson(output, !unordered, offset, limit, withPath);
+                }
+                catch (IOException e) {
+                    // The response is already committed, nothing else to tell the client
+                    log.info("Aborted NDJSON export of {}: {}", path, e.getMessage());
+                }
             }
         };
     }
@@ -137,9 +291,10 @@ public class HdfsBrowser
     @Path("/text")
     @Timed
     public Viewable dirToJson(@QueryParam("path") final String path,
-                              @QueryParam("recursive") final boolean recursive) throws IOException
+                              @QueryParam("recursive") final boolean recursive,
+                              @QueryParam("filter") final List<String> filter) throws IOException
     {
-        return new Viewable("/rest/contentRaw.jsp", hdfsReader.getListing(path, true, recursive));
+        return new Viewable("/rest/contentRaw.jsp", hdfsReader.getListing(resolve(path), true, recursive, parseFilter(filter), null));
     }
 
     @GET
@@ -148,11 +303,12 @@ public class HdfsBrowser
     @Timed
     public StreamingOutput download(@QueryParam("path") final String path) throws IOException
     {
-        if (hdfsReader.isDir(path)) {
+        final FileStatus status = resolve(path);
+        if (status.isDir()) {
             throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
 
-        return hdfsReader.getFile(path);
+        return hdfsReader.getFile(status);
     }
 
     @GET
@@ -197,6 +353,8 @@ public class HdfsBrowser
 
         try {
             final URI path = hdfsWriter.write(body, outputPath, overwrite, replication, blocksize, permission);
+            // Don't serve the previous FileStatus (length, mtime) of overwritten files
+            hdfsReader.invalidate(outputPath);
             return Response.created(path).build();
         }
         catch (IOException e) {
@@ -214,6 +372,65 @@ public class HdfsBrowser
         }
     }
 
+    /**
+     * Lookup a path in HDFS, once per request.
+     *
+     * @param path path to either a file or directory
+     * @return FileStatus of the path
+     * @throws IOException           generic I/O Exception
+     * @throws WebApplicationException (404) if the path doesn't exist
+     */
+    private FileStatus resolve(final String path) throws IOException
+    {
+        if (path == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        try {
+            return hdfsReader.resolve(path);
+        }
+        catch (FileNotFoundException e) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+    }
+
+    private RowFilter parseFilter(final List<String> filter)
+    {
+        if (filter == null || filter.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new RowFilter(filter);
+        }
+        catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).header("Warning", "199 " + e.getMessage()).build());
+        }
+    }
+
+    private List<String> parseFields(final String fields, final RowFilter filter)
+    {
+        if (StringUtils.isBlank(fields)) {
+            return null;
+        }
+
+        final List<String> fieldNames = new ArrayList<String>();
+        for (final String field : StringUtils.split(fields, ",")) {
+            fieldNames.add(field.trim());
+        }
+
+        // The filtered columns need to be decoded as well
+        if (filter != null) {
+            for (final String field : filter.getFieldNames()) {
+                if (!fieldNames.contains(field)) {
+                    fieldNames.add(field);
+                }
+            }
+        }
+
+        return fieldNames;
+    }
+
     @DELETE
     @Produces(MediaType.TEXT_PLAIN)
     @Timed
@@ -222,6 +439,7 @@ public class HdfsBrowser
     {
         try {
             hdfsWriter.delete(outputPath, recursive);
+            hdfsReader.invalidate(outputPath);
             return Response.ok().build();
         }
         catch (IOException e) {
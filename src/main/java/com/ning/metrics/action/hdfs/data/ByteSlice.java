@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import org.apache.hadoop.io.WritableComparator;
+
+import java.nio.charset.Charset;
+
+/**
+ * Slice of a byte buffer, decoded as UTF-8 only when needed (e.g. when the row is rendered).
+ * <p/>
+ * The bytes are not copied: the buffer must not be modified while the slice is in use.
+ */
+public class ByteSlice implements Comparable<ByteSlice>
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+    private String text = null;
+
+    public ByteSlice(final byte[] buffer, final int offset, final int length)
+    {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return a copy of the bytes of this slice
+     */
+    public byte[] getBytes()
+    {
+        final byte[] bytes = new byte[length];
+        System.arraycopy(buffer, offset, bytes, 0, length);
+        return bytes;
+    }
+
+    @Override
+    public int compareTo(final ByteSlice o)
+    {
+        return WritableComparator.compareBytes(buffer, offset, length, o.buffer, o.offset, o.length);
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        return this == o || o instanceof ByteSlice && compareTo((ByteSlice) o) == 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return WritableComparator.hashBytes(buffer, offset, length);
+    }
+
+    /**
+     * @return the slice, decoded as UTF-8
+     */
+    @Override
+    public String toString()
+    {
+        // Decode once, on first use
+        if (text == null) {
+            text = new String(buffer, offset, length, UTF_8);
+        }
+
+        return text;
+    }
+}
@@ -13,11 +13,16 @@
  * License for the specific language governing permissions and limitations
  * under the License.
  */
-
 package com.ning.metrics.action.hdfs.data;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.Closeable;
+import java.util.Iterator;
 
-public class Rows extends ConcurrentLinkedQueue<Row>
+/**
+ * Iterator holding resources (HDFS streams, decoding threads) which must be released, even if not fully consumed.
+ *
+ * @param <T> type of the elements returned
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable
 {
 }
@@ -49,6 +49,11 @@ public abstract class Row<T extends Comparable, Serializable> implements Writabl
     protected List<T> data;
     protected RowSchema schema;
 
+    public RowSchema getSchema()
+    {
+        return schema;
+    }
+
     /**
      * Return the data associated to a key
      *
@@ -71,6 +76,26 @@ public abstract class Row<T extends Comparable, Serializable> implements Writabl
         return data.get(schema.getColNum(key));
     }
 
+    /**
+     * Get the value of a column, as represented in JSON (e.g. to evaluate filters)
+     *
+     * @param key RowSchema key
+     * @return the value, null if the row doesn't have this column
+     */
+    public Object getValue(ColumnKey key)
+    {
+        if (!(key instanceof ColumnKeyTransformer) && !hasKey(key)) {
+            return null;
+        }
+
+        try {
+            return getJsonValue(get(key));
+        }
+        catch (RowAccessException e) {
+            return null;
+        }
+    }
+
     /**
      * Add some data to a row
      *
@@ -82,12 +107,26 @@ public abstract class Row<T extends Comparable, Serializable> implements Writabl
     {
         int pos = data.size();
 
-        schema.addCol(key, pos);
+        getMutableSchema().addCol(key, pos);
         data.add(value);
 
         return this;
     }
 
+    /**
+     * Get the schema of this row, for modification: shared schemas are copied first
+     *
+     * @return the schema of this row
+     */
+    protected RowSchema getMutableSchema()
+    {
+        if (schema.isFrozen()) {
+            schema = new RowSchema(schema);
+        }
+
+        return schema;
+    }
+
     /**
      * Whether the schema associated with the row contains a specified key
      *
@@ -105,7 +144,19 @@ public abstract class Row<T extends Comparable, Serializable> implements Writabl
      * @param out DataOutput to write
      * @throws IOException generic serialization error
      */
-    public abstract void write(DataOutput out) throws IOException;
+    public void write(DataOutput out) throws IOException
+    {
+        schema.write(out);
+        writeData(out);
+    }
+
+    /**
+     * Serialize the data of the row, without its schema, into the DataOutput
+     *
+     * @param out DataOutput to write
+     * @throws IOException generic serialization error
+     */
+    public abstract void writeData(DataOutput out) throws IOException;
 
     /**
      * Replace the current row content with a specified DataInput
@@ -123,6 +174,19 @@ public abstract class Row<T extends Comparable, Serializable> implements Writabl
      */
     protected abstract Object getJsonValue(T item);
 
+    /**
+     * Write an item with the typed JsonGenerator methods. Subclasses should override this to avoid going through
+     * the generic (boxed) {@link #getJsonValue(Comparable)} representation.
+     *
+     * @param generator generator to write to
+     * @param item      data item to write
+     * @throws IOException generic I/O Exception
+     */
+    protected void writeJsonValue(JsonGenerator generator, T item) throws IOException
+    {
+        generator.writeObject(getJsonValue(item));
+    }
+
     @JsonValue
     @SuppressWarnings({"unchecked", "unused"})
     public ImmutableMap toMap()
@@ -208,15 +272,25 @@ public abstract class Row<T extends Comparable, Serializable> implements Writabl
 
     public void toJSON(final JsonGenerator generator) throws IOException
     {
-        int i = 0;
         generator.writeStartObject();
+        writeJSONFields(generator);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write the fields of the row into the current JSON object, e.g. to add fields to the row
+     *
+     * @param generator generator to write to, positioned inside an object
+     * @throws IOException generic serialization error
+     */
+    public void writeJSONFields(final JsonGenerator generator) throws IOException
+    {
+        int i = 0;
         for (T item : data) {
             generator.writeFieldName(schema.getFieldNameByPosition(i));
-            generator.writeObject(getJsonValue(item));
+            writeJsonValue(generator, item);
             i++;
         }
-        generator.writeEndObject();
-        generator.flush();
     }
 
     public String toJSON() throws IOException
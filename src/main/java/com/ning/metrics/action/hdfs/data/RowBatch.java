@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reusable buffer of decoded rows, filled by a reader and drained by a single consumer.
+ * <p/>
+ * Rows are stored in a plain array: adding or polling a row doesn't allocate anything. The capacity is the number of
+ * rows readers should aim for per batch (see {@link #isFull()}); a single record decoded into more rows than that
+ * grows the array.
+ * <p/>
+ * This class is not thread-safe.
+ */
+public class RowBatch implements Iterable<Row>
+{
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final int capacity;
+    private Row[] rows;
+    // Number of rows in the batch
+    private int size = 0;
+    // Next row to poll
+    private int position = 0;
+
+    public RowBatch()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RowBatch(final int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.rows = new Row[capacity];
+    }
+
+    /**
+     * Append a row
+     *
+     * @param row row to add
+     */
+    public void add(final Row row)
+    {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[size++] = row;
+    }
+
+    /**
+     * Retrieve and remove the next row
+     *
+     * @return the next row, null if the batch has been drained
+     */
+    public Row poll()
+    {
+        if (position == size) {
+            return null;
+        }
+
+        final Row row = rows[position];
+        // Don't hold on to consumed rows
+        rows[position++] = null;
+
+        return row;
+    }
+
+    /**
+     * Remove all rows, keeping the buffer for the next batch
+     */
+    public void clear()
+    {
+        Arrays.fill(rows, position, size, null);
+        if (rows.length > capacity) {
+            // Shrink back after an oversized record
+            rows = new Row[capacity];
+        }
+        size = 0;
+        position = 0;
+    }
+
+    /**
+     * @return number of rows left to poll
+     */
+    public int size()
+    {
+        return size - position;
+    }
+
+    public boolean isEmpty()
+    {
+        return position == size;
+    }
+
+    /**
+     * @return true if readers should stop adding rows to this batch
+     */
+    public boolean isFull()
+    {
+        return size >= capacity;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Iterate over the rows left to poll, without consuming them
+     *
+     * @return iterator over the remaining rows
+     */
+    @Override
+    public Iterator<Row> iterator()
+    {
+        return new Iterator<Row>()
+        {
+            private int next = position;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < size;
+            }
+
+            @Override
+            public Row next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return rows[next++];
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("remove not implemented; read-only iterator");
+            }
+        };
+    }
+}
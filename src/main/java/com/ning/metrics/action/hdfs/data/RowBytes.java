@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row of raw bytes (e.g. from BytesWritable values), decoded to text only when rendered.
+ *
+ * @see ByteSlice
+ */
+public class RowBytes extends Row<ByteSlice, Serializable>
+{
+    public RowBytes(RowSchema schema, List<ByteSlice> data)
+    {
+        this.schema = schema;
+        this.data = data;
+    }
+
+    public RowBytes(RowSchema schema, ByteSlice data)
+    {
+        this.schema = schema;
+        this.data = new ArrayList<ByteSlice>(1);
+        this.data.add(data);
+    }
+
+    /**
+     * Serialize the data of the row, without its schema, into the DataOutput
+     *
+     * @param out DataOutput to write
+     * @throws java.io.IOException generic serialization error
+     */
+    @Override
+    public void writeData(DataOutput out) throws IOException
+    {
+        WritableUtils.writeVInt(out, data.size());
+
+        for (ByteSlice dataItem : data) {
+            out.writeInt(dataItem.getLength());
+            out.write(dataItem.getBuffer(), dataItem.getOffset(), dataItem.getLength());
+        }
+    }
+
+    /**
+     * Replace the current row content with a specified DataInput
+     *
+     * @param in DataInput to read
+     * @throws java.io.IOException generic serialization error
+     */
+    @Override
+    public void readFields(DataInput in) throws IOException
+    {
+        getMutableSchema().readFields(in);
+        int size = WritableUtils.readVInt(in);
+
+        data = new ArrayList<ByteSlice>(size);
+        for (int i = 0; i < size; i++) {
+            int length = in.readInt();
+            byte[] bytes = new byte[length];
+
+            in.readFully(bytes);
+            data.add(new ByteSlice(bytes, 0, length));
+        }
+    }
+
+    /**
+     * Get a Jackson-friendly representation of an item
+     *
+     * @param item data item to represent
+     * @return json representation
+     */
+    @Override
+    protected Object getJsonValue(ByteSlice item)
+    {
+        return item == null ? null : item.toString();
+    }
+
+    @Override
+    protected void writeJsonValue(JsonGenerator generator, ByteSlice item) throws IOException
+    {
+        if (item == null) {
+            generator.writeNull();
+        }
+        else {
+            generator.writeString(item.toString());
+        }
+    }
+}
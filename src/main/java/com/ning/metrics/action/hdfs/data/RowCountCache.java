@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.weakref.jmx.Managed;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number of rows in files which have been read until the end.
+ * <p/>
+ * Entries are keyed by path, modification time and length: a file which changes gets a new entry. This lets paged
+ * reads skip whole files without opening them.
+ */
+@Singleton
+public class RowCountCache
+{
+    private final Cache<Key, Long> rowCounts;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    @Inject
+    public RowCountCache(final ActionCoreConfig config)
+    {
+        this(config.getRowCountsMax());
+    }
+
+    public RowCountCache(final long maxFiles)
+    {
+        rowCounts = CacheBuilder.newBuilder()
+            .maximumSize(maxFiles)
+            .build();
+    }
+
+    /**
+     * Lookup the number of rows in a file
+     *
+     * @param status file to lookup
+     * @param raw    whether the rows are read in raw mode (a record may be decoded into several rows otherwise)
+     * @return the number of rows in the file, -1 if unknown
+     */
+    public long getRowCount(final FileStatus status, final boolean raw)
+    {
+        final Long rowCount = rowCounts.getIfPresent(new Key(status, raw));
+        if (rowCount == null) {
+            misses.incrementAndGet();
+            return -1;
+        }
+        else {
+            hits.incrementAndGet();
+            return rowCount;
+        }
+    }
+
+    void putRowCount(final FileStatus status, final boolean raw, final long rowCount)
+    {
+        rowCounts.put(new Key(status, raw), rowCount);
+    }
+
+    @Managed(description = "Number of files skipped using their cached row count")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @Managed(description = "Number of files which had to be read to be skipped")
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @Managed(description = "Number of files with a cached row count")
+    public long getSize()
+    {
+        return rowCounts.size();
+    }
+
+    private static final class Key
+    {
+        private final String path;
+        private final long modificationTime;
+        private final long length;
+        private final boolean raw;
+
+        private Key(final FileStatus status, final boolean raw)
+        {
+            this.path = status.getPath().toString();
+            this.modificationTime = status.getModificationTime();
+            this.length = status.getLen();
+            this.raw = raw;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+
+            return length == key.length &&
+                modificationTime == key.modificationTime &&
+                raw == key.raw &&
+                path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = path.hashCode();
+            result = 31 * result + (int) (modificationTime ^ (modificationTime >>> 32));
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            result = 31 * result + (raw ? 1 : 0);
+            return result;
+        }
+    }
+}
@@ -46,6 +46,9 @@ public class RowFactory
         else if (data.get(0) instanceof JsonNode) {
             return new RowSmile(rowSchema, (List<JsonNodeComparable>) data);
         }
+        else if (data.get(0) instanceof ByteSlice) {
+            return new RowBytes(rowSchema, (List<ByteSlice>) data);
+        }
         else {
             return new RowText(rowSchema, (List<String>) data);
         }
@@ -17,23 +17,25 @@
 package com.ning.metrics.action.hdfs.data;
 
 import com.ning.metrics.action.hdfs.data.parser.RowParser;
+import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
 import com.ning.metrics.action.schema.Registrar;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
-import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * File wrapper - turn a file into a Row iterator
  */
-abstract class RowFileContentsIterator implements Iterator<Row>, Closeable
+abstract class RowFileContentsIterator implements CloseableIterator<Row>
 {
     static final Logger log = LoggerFactory.getLogger(RowFileContentsIterator.class);
 
@@ -41,10 +43,24 @@ abstract class RowFileContentsIterator implements Iterator<Row>, Closeable
     final String pathname;
     final RowParser rowParser;
     private Row row;
-    private final Rows batchedRows = new Rows();
+    // Reused for all batches
+    private final RowBatch batchedRows = new RowBatch();
     boolean readerClosed = false;
     final Registrar registrar;
 
+    // Number of rows returned or skipped so far
+    private long rowsRead = 0;
+    // Whether the end of the file has been reached (as opposed to an I/O error)
+    private boolean reachedEndOfFile = false;
+    private RowCountCache rowCountCache = null;
+    private FileStatus status = null;
+    private AtomicLong openReaders = null;
+    // Only return the rows matching this filter, if any
+    private RowFilter filter = null;
+
+    // Shared by all rows read in raw mode
+    static final RowSchema RAW_SCHEMA = new RowSchema("ad-hoc", new DynamicColumnKey("record")).freeze();
+
     public static final String JSON_CONTENT_PATH = "path";
     public static final String JSON_CONTENT_ENTRIES = "entries";
 
@@ -64,19 +80,77 @@ abstract class RowFileContentsIterator implements Iterator<Row>, Closeable
         this.rawContents = rawContents;
     }
 
+    /**
+     * Account for this reader until it is closed
+     *
+     * @param openReaders number of open readers
+     */
+    void countOpenReaders(final AtomicLong openReaders)
+    {
+        openReaders.incrementAndGet();
+        this.openReaders = openReaders;
+    }
+
+    /**
+     * Remember the number of rows in the file once it has been read until the end
+     *
+     * @param rowCountCache cache to populate
+     * @param status        file being read
+     */
+    void countRows(final RowCountCache rowCountCache, final FileStatus status)
+    {
+        this.rowCountCache = rowCountCache;
+        this.status = status;
+    }
+
+    /**
+     * Only return the rows matching a filter. Rows counts aren't remembered for filtered reads.
+     *
+     * @param filter filter to apply
+     */
+    void filter(final RowFilter filter)
+    {
+        this.filter = filter;
+        this.rowCountCache = null;
+    }
+
+    /**
+     * Cheap test on a textual record, before decoding it
+     *
+     * @param bytes  buffer containing the record
+     * @param offset beginning of the record
+     * @param length length of the record
+     * @return false if none of the rows of the record can match the filter
+     * @see RowFilter#mightMatch(byte[], int, int)
+     */
+    boolean mightMatch(final byte[] bytes, final int offset, final int length)
+    {
+        return filter == null || filter.mightMatch(bytes, offset, length);
+    }
+
     @Override
     public boolean hasNext()
     {
-        if (row == null) {
+        while (row == null) {
             // Make sure not to produce faster than the client can consume
-            if (batchedRows.size() == 0) {
-                final Rows newRows = readNextRows();
-                if (newRows != null) {
-                    batchedRows.addAll(newRows);
-                }
+            // Some records may not yield any row
+            while (batchedRows.isEmpty() && !readerClosed) {
+                batchedRows.clear();
+                readNextRows(batchedRows);
             }
 
             row = batchedRows.poll();
+            if (row == null) {
+                break;
+            }
+            else if (filter != null && !filter.matches(row)) {
+                row = null;
+            }
+        }
+
+        if (row == null && reachedEndOfFile && rowCountCache != null) {
+            rowCountCache.putRowCount(status, rawContents, rowsRead);
+            rowCountCache = null;
         }
 
         return row != null;
@@ -94,9 +168,62 @@ abstract class RowFileContentsIterator implements Iterator<Row>, Closeable
             throw new NoSuchElementException();
         }
 
+        rowsRead++;
         return returnRow;
     }
 
+    /**
+     * Skip rows, without decoding them when the file format allows it.
+     *
+     * @param n number of rows to skip
+     * @return number of rows skipped, less than n if the end of the file has been reached
+     */
+    public long skip(final long n)
+    {
+        long skipped = 0;
+
+        // Rows already decoded
+        if (row != null && skipped < n) {
+            row = null;
+            skipped++;
+        }
+        // Buffered rows haven't been filtered yet
+        while (skipped < n && filter == null && batchedRows.poll() != null) {
+            skipped++;
+        }
+
+        // Skipped records may not match the filter
+        if (skipped < n && !readerClosed && filter == null) {
+            skipped += skipRecords(n - skipped);
+        }
+        rowsRead += skipped;
+
+        // Fallback for records which don't map to exactly one row
+        while (skipped < n && hasNext()) {
+            next();
+            skipped++;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * @return true if the file has been read until the end (as opposed to closed early or on error)
+     */
+    boolean isEndOfFile()
+    {
+        return reachedEndOfFile;
+    }
+
+    /**
+     * Mark the end of the file and close it
+     */
+    void endOfFile()
+    {
+        reachedEndOfFile = true;
+        close();
+    }
+
     @Override
     public void remove()
     {
@@ -104,9 +231,43 @@ abstract class RowFileContentsIterator implements Iterator<Row>, Closeable
     }
 
     /**
-     * Read one or more rows
+     * Release the underlying reader. Can be called at any time: partially consumed files don't hold on to their
+     * stream.
+     */
+    @Override
+    public void close()
+    {
+        if (!readerClosed) {
+            // Don't retry on failure
+            readerClosed = true;
+            closeReader();
+
+            if (openReaders != null) {
+                openReaders.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Close the underlying reader, called once
+     */
+    abstract void closeReader();
+
+    /**
+     * Read one or more rows, closing the reader at the end of the file
      *
-     * @return the next row(s)
+     * @param rows batch to fill, empty
      */
-    abstract Rows readNextRows();
+    abstract void readNextRows(RowBatch rows);
+
+    /**
+     * Skip records without decoding them, if each record is known to be exactly one row
+     *
+     * @param n number of records to skip
+     * @return number of records skipped, less than n if skipping isn't supported or at the end of the file
+     */
+    long skipRecords(final long n)
+    {
+        return 0;
+    }
 }
@@ -16,17 +16,27 @@
 
 package com.ning.metrics.action.hdfs.data;
 
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
 import com.ning.metrics.action.hdfs.data.parser.RowParser;
+import com.ning.metrics.action.schema.ProjectingRegistrar;
 import com.ning.metrics.action.schema.Registrar;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
+import org.weakref.jmx.Managed;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Retrieve the content of a file as a list of Rows.
@@ -38,18 +48,209 @@ public class RowFileContentsIteratorFactory
 {
     private final RowParser rowParser;
     private final Registrar registrar;
+    private final RowCountCache rowCountCache;
+    private final AtomicLong openReaders;
+    // Filter applied to all files read, null for none
+    private final RowFilter filter;
+
+    // Parallel decoding of large SequenceFiles
+    private final ExecutorService splitExecutor;
+    private final long splitSize;
+    private final int splitWindow;
+    private final int bufferRows;
 
     @Inject
-    public RowFileContentsIteratorFactory(final RowParser rowParser, final Registrar registrar)
+    public RowFileContentsIteratorFactory(final RowParser rowParser, final Registrar registrar, final RowCountCache rowCountCache, final ActionCoreConfig config)
     {
         this.rowParser = rowParser;
         this.registrar = registrar;
+        this.rowCountCache = rowCountCache;
+        this.openReaders = new AtomicLong(0);
+        this.filter = null;
+
+        this.splitSize = config.getDecoderSplitSize();
+        this.splitWindow = config.getDecoderSplitWindow();
+        this.bufferRows = config.getDecoderBufferRows();
+        if (splitSize > 0) {
+            this.splitExecutor = Executors.newFixedThreadPool(config.getDecoderSplitThreads(), new ThreadFactoryBuilder().setNameFormat("split-decoder-%d").setDaemon(true).build());
+        }
+        else {
+            this.splitExecutor = null;
+        }
+    }
+
+    private RowFileContentsIteratorFactory(final RowFileContentsIteratorFactory factory, final Registrar registrar, final RowFilter filter)
+    {
+        this.rowParser = factory.rowParser;
+        this.registrar = registrar;
+        this.rowCountCache = factory.rowCountCache;
+        this.openReaders = factory.openReaders;
+        this.filter = filter;
+
+        this.splitExecutor = factory.splitExecutor;
+        this.splitSize = factory.splitSize;
+        this.splitWindow = factory.splitWindow;
+        this.bufferRows = factory.bufferRows;
+    }
+
+    /**
+     * Get a factory whose iterators only return the rows matching a filter. Non-matching rows are dropped as they are
+     * decoded, and textual records are tested before being decoded (see {@link RowFilter#mightMatch}).
+     *
+     * @param filter filter to apply, null for none
+     * @return factory sharing the readers and executors of this one
+     */
+    public RowFileContentsIteratorFactory filtered(final RowFilter filter)
+    {
+        if (filter == null) {
+            return this;
+        }
+        else {
+            return new RowFileContentsIteratorFactory(this, registrar, filter);
+        }
+    }
+
+    /**
+     * Get a factory whose iterators only decode some columns of Smile and Thrift events: the other fields are never
+     * materialized into rows.
+     *
+     * @param fields names of the columns to keep, in output order, null for all
+     * @return factory sharing the readers and executors of this one
+     * @see ProjectingRegistrar
+     */
+    public RowFileContentsIteratorFactory projected(final List<String> fields)
+    {
+        if (fields == null || fields.isEmpty()) {
+            return this;
+        }
+        else {
+            return new RowFileContentsIteratorFactory(this, new ProjectingRegistrar(registrar, fields), filter);
+        }
+    }
+
+    /**
+     * Open a file we already have the FileStatus of. Its number of rows is remembered once it has been read until
+     * the end, see {@link #getRowCount(org.apache.hadoop.fs.FileStatus, boolean)}.
+     *
+     * @param fs     FileSystem to read from
+     * @param status file to read
+     * @param raw    whether to lookup the schema
+     * @return iterator over the rows of the file, to close if not consumed until the end
+     * @throws IOException generic I/O Exception
+     */
+    public CloseableIterator<Row> build(final FileSystem fs, final FileStatus status, final boolean raw) throws IOException
+    {
+        final RowFileContentsIterator iterator = open(fs, status.getPath(), raw);
+
+        // Row counts of filtered reads don't apply to the file
+        final RowCountCache cache = filter == null ? rowCountCache : null;
+
+        if (splitExecutor != null && status.getLen() > splitSize && iterator instanceof RowSequenceFileContentsIterator) {
+            return new SplitSequenceFileContentsIterator(this, fs, status, raw, (RowSequenceFileContentsIterator) iterator,
+                cache, splitExecutor, splitSize, splitWindow, bufferRows);
+        }
+
+        if (cache != null) {
+            iterator.countRows(cache, status);
+        }
+
+        return iterator;
     }
 
-    public Iterator<Row> build(final FileSystem fs, final Path path, final boolean raw) throws IOException
+    /**
+     * Get the number of rows in a file, if it has been read before
+     *
+     * @param status file to lookup
+     * @param raw    whether the file is read in raw mode
+     * @return the number of rows in the file, -1 if unknown (always, for filtered factories)
+     */
+    public long getRowCount(final FileStatus status, final boolean raw)
     {
+        if (filter != null) {
+            return -1;
+        }
+
+        return rowCountCache.getRowCount(status, raw);
+    }
+
+    /**
+     * Skip rows of a file, without decoding them when the file format allows it
+     *
+     * @param content iterator returned by this factory
+     * @param n       number of rows to skip
+     * @return number of rows skipped, less than n if the end of the file has been reached
+     */
+    public static long skip(final Iterator<Row> content, final long n)
+    {
+        if (content instanceof RowFileContentsIterator) {
+            return ((RowFileContentsIterator) content).skip(n);
+        }
+        else if (content instanceof SplitSequenceFileContentsIterator) {
+            return ((SplitSequenceFileContentsIterator) content).skip(n);
+        }
+
+        long skipped = 0;
+        while (skipped < n && content.hasNext()) {
+            content.next();
+            skipped++;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Open a file.
+     * <p/>
+     * The reader is closed once the file has been read until the end; it needs to be closed explicitly otherwise.
+     *
+     * @param fs   FileSystem to read from
+     * @param path file to read
+     * @param raw  whether to lookup the schema
+     * @return iterator over the rows of the file, to close if not consumed until the end
+     * @throws IOException generic I/O Exception
+     */
+    public CloseableIterator<Row> build(final FileSystem fs, final Path path, final boolean raw) throws IOException
+    {
+        return open(fs, path, raw);
+    }
+
+    /**
+     * Open the split of a SequenceFile starting at the first sync marker after start
+     *
+     * @param fs    FileSystem to read from
+     * @param path  SequenceFile to read
+     * @param raw   whether to lookup the schema
+     * @param start beginning of the split
+     * @param end   end of the split
+     * @return iterator over the rows of the split
+     * @throws IOException generic I/O Exception
+     */
+    RowSequenceFileContentsIterator openSplit(final FileSystem fs, final Path path, final boolean raw, final long start, final long end) throws IOException
+    {
+        final SequenceFile.Reader reader = new SequenceFile.Reader(fs, path, fs.getConf());
+        final RowSequenceFileContentsIterator iterator;
         try {
-            return new RowSequenceFileContentsIterator(
+            reader.sync(start);
+            iterator = new RowSequenceFileContentsIterator(path.toUri().getPath(), rowParser, registrar, reader, raw);
+        }
+        catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+
+        iterator.setEnd(end);
+        if (filter != null) {
+            iterator.filter(filter);
+        }
+        iterator.countOpenReaders(openReaders);
+        return iterator;
+    }
+
+    private RowFileContentsIterator open(final FileSystem fs, final Path path, final boolean raw) throws IOException
+    {
+        RowFileContentsIterator iterator;
+        try {
+            iterator = new RowSequenceFileContentsIterator(
                 path.toUri().getPath(),
                 rowParser,
                 registrar,
@@ -60,12 +261,34 @@ public class RowFileContentsIteratorFactory
             // Not a Sequence file?
             final FSDataInputStream input = fs.open(path);
 
-            return new RowTextFileContentsIterator(
-                path.toUri().getPath(),
-                rowParser,
-                registrar,
-                input,
-                raw);
+            try {
+                iterator = new RowTextFileContentsIterator(
+                    path.toUri().getPath(),
+                    rowParser,
+                    registrar,
+                    input,
+                    raw);
+            }
+            catch (IOException textException) {
+                input.close();
+                throw textException;
+            }
+            catch (RuntimeException textException) {
+                input.close();
+                throw textException;
+            }
+        }
+
+        if (filter != null) {
+            iterator.filter(filter);
         }
+        iterator.countOpenReaders(openReaders);
+        return iterator;
+    }
+
+    @Managed(description = "Number of files currently open for reading")
+    public long getOpenReaders()
+    {
+        return openReaders.get();
     }
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.hdfs.data.schema.ColumnKey;
+import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Predicate on decoded rows, conjunction of conditions on their columns:
+ * <ul>
+ * <li>field=value: equality (numerically, for numeric columns)</li>
+ * <li>field&lt;value, field&lt;=value, field&gt;value, field&gt;=value: range (numerically if both sides are numbers,
+ * lexicographically otherwise)</li>
+ * <li>field^=value: prefix</li>
+ * <li>field~regex: the value contains a match of the regular expression</li>
+ * </ul>
+ * Rows which don't have the field don't match. Filters are immutable and can be shared between threads.
+ */
+public class RowFilter
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Condition> conditions;
+    // Byte sequences any matching payload contains, see mightMatch
+    private final List<byte[]> literals = new ArrayList<byte[]>();
+
+    /**
+     * @param expressions conditions, all of which rows have to match
+     * @throws IllegalArgumentException if a condition is malformed
+     */
+    public RowFilter(final Iterable<String> expressions)
+    {
+        final List<Condition> parsed = new ArrayList<Condition>();
+        for (final String expression : expressions) {
+            final Condition condition = parse(expression);
+            parsed.add(condition);
+
+            // Values of textual rows are compared as text, matching payloads contain them verbatim (unless malformed,
+            // i.e. decoded with replacement characters)
+            if ((condition.operator == Operator.EQ || condition.operator == Operator.PREFIX) &&
+                condition.value.length() > 0 && condition.value.indexOf('\uFFFD') < 0) {
+                literals.add(condition.value.getBytes(UTF_8));
+            }
+        }
+
+        this.conditions = parsed;
+    }
+
+    /**
+     * @return names of the fields the conditions apply to
+     */
+    public List<String> getFieldNames()
+    {
+        final List<String> fieldNames = new ArrayList<String>(conditions.size());
+        for (final Condition condition : conditions) {
+            fieldNames.add(condition.key.getKeyName());
+        }
+
+        return fieldNames;
+    }
+
+    /**
+     * @param row row to test
+     * @return true if the row matches all conditions
+     */
+    public boolean matches(final Row row)
+    {
+        for (final Condition condition : conditions) {
+            if (!condition.matches(row.getValue(condition.key))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Cheap test on a textual payload, before decoding it: false if none of the rows it decodes into can match.
+     * <p/>
+     * Only valid for payloads whose rows values are substrings of the payload (text lines, raw bytes).
+     *
+     * @param bytes  buffer containing the payload
+     * @param offset beginning of the payload
+     * @param length length of the payload
+     * @return false if the payload can be skipped
+     */
+    public boolean mightMatch(final byte[] bytes, final int offset, final int length)
+    {
+        for (final byte[] literal : literals) {
+            if (indexOf(bytes, offset, length, literal) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int indexOf(final byte[] bytes, final int offset, final int length, final byte[] literal)
+    {
+        final int last = offset + length - literal.length;
+        final byte first = literal[0];
+
+        for (int i = offset; i <= last; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+
+            int j = 1;
+            while (j < literal.length && bytes[i + j] == literal[j]) {
+                j++;
+            }
+            if (j == literal.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static Condition parse(final String expression)
+    {
+        for (int i = 0; i < expression.length(); i++) {
+            final char c = expression.charAt(i);
+            final boolean followedByEquals = i + 1 < expression.length() && expression.charAt(i + 1) == '=';
+
+            final Operator operator;
+            if (c == '=') {
+                operator = Operator.EQ;
+            }
+            else if (c == '~') {
+                operator = Operator.REGEX;
+            }
+            else if (c == '^' && followedByEquals) {
+                operator = Operator.PREFIX;
+            }
+            else if (c == '<') {
+                operator = followedByEquals ? Operator.LTE : Operator.LT;
+            }
+            else if (c == '>') {
+                operator = followedByEquals ? Operator.GTE : Operator.GT;
+            }
+            else {
+                continue;
+            }
+
+            final String field = expression.substring(0, i).trim();
+            if (field.length() == 0) {
+                throw new IllegalArgumentException("Missing field name in filter: " + expression);
+            }
+
+            final int valueStart = i + operator.symbol.length();
+            return new Condition(field, operator, expression.substring(valueStart));
+        }
+
+        throw new IllegalArgumentException("Missing operator in filter: " + expression);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RowFilter{" +
+               "conditions=" + conditions +
+               '}';
+    }
+
+    private enum Operator
+    {
+        EQ("="),
+        LT("<"),
+        LTE("<="),
+        GT(">"),
+        GTE(">="),
+        PREFIX("^="),
+        REGEX("~");
+
+        private final String symbol;
+
+        private Operator(final String symbol)
+        {
+            this.symbol = symbol;
+        }
+    }
+
+    private static final class Condition
+    {
+        private final ColumnKey key;
+        private final Operator operator;
+        private final String value;
+        private final Double numericValue;
+        private final Pattern pattern;
+
+        private Condition(final String field, final Operator operator, final String value)
+        {
+            this.key = new DynamicColumnKey(field);
+            this.operator = operator;
+            this.value = value;
+            this.numericValue = parseDouble(value);
+
+            if (operator == Operator.REGEX) {
+                try {
+                    this.pattern = Pattern.compile(value);
+                }
+                catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Invalid regular expression in filter: " + value, e);
+                }
+            }
+            else {
+                this.pattern = null;
+            }
+        }
+
+        private boolean matches(final Object rowValue)
+        {
+            if (rowValue == null) {
+                return false;
+            }
+
+            final String text = rowValue.toString();
+            switch (operator) {
+                case EQ:
+                    if (rowValue instanceof Number && numericValue != null) {
+                        return ((Number) rowValue).doubleValue() == numericValue;
+                    }
+                    return text.equals(value);
+                case PREFIX:
+                    return text.startsWith(value);
+                case REGEX:
+                    return pattern.matcher(text).find();
+                default:
+                    final int comparison = compare(rowValue, text);
+                    switch (operator) {
+                        case LT:
+                            return comparison < 0;
+                        case LTE:
+                            return comparison <= 0;
+                        case GT:
+                            return comparison > 0;
+                        default:
+                            return comparison >= 0;
+                    }
+            }
+        }
+
+        private int compare(final Object rowValue, final String text)
+        {
+            if (numericValue != null) {
+                final Double number = rowValue instanceof Number ? ((Number) rowValue).doubleValue() : parseDouble(text);
+                if (number != null) {
+                    return Double.compare(number, numericValue);
+                }
+            }
+
+            return text.compareTo(value);
+        }
+
+        private static Double parseDouble(final String text)
+        {
+            try {
+                return Double.valueOf(text.trim());
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return key.getKeyName() + operator.symbol + value;
+        }
+    }
+}
@@ -17,87 +17,186 @@
 package com.ning.metrics.action.hdfs.data;
 
 import com.ning.metrics.action.hdfs.data.parser.RowParser;
-import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
-import com.ning.metrics.action.hdfs.data.schema.RowSchema;
 import com.ning.metrics.action.schema.Registrar;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 class RowSequenceFileContentsIterator extends RowFileContentsIterator
 {
     private final SequenceFile.Reader reader;
+    private final boolean blockCompressed;
+    private final DataOutputBuffer rawKey = new DataOutputBuffer();
+    // Position of the end of the split being read
+    private long end = Long.MAX_VALUE;
+
+    // Reused between records
+    private Object key = null;
+    private Object value = null;
 
     public RowSequenceFileContentsIterator(final String pathname, final RowParser rowParser, final Registrar registrar, final SequenceFile.Reader reader, final boolean rawContents)
     {
         super(pathname, rowParser, registrar, rawContents);
         this.reader = reader;
+        this.blockCompressed = reader.isBlockCompressed();
+    }
+
+    /**
+     * Only read the records of the split ending at the specified position: as for Hadoop input splits, the split ends
+     * at the first sync marker past this position.
+     *
+     * @param end end of the split
+     */
+    void setEnd(final long end)
+    {
+        this.end = end;
     }
 
     @Override
-    public void close()
+    void closeReader()
     {
-        if (!readerClosed) {
-            try {
-                reader.close();
-                readerClosed = true;
-            }
-            catch (IOException e) {
-                log.warn("Unable to close reader", e);
-            }
+        try {
+            reader.close();
+        }
+        catch (IOException e) {
+            log.warn("Unable to close reader", e);
         }
     }
 
     /**
-     * Read one or more rows
+     * Read records until the batch is full
      *
-     * @return the next row(s)
+     * @param rows batch to fill
      */
     @Override
-    Rows readNextRows()
+    void readNextRows(final RowBatch rows)
     {
         try {
-            if (readerClosed) {
-                return null;
-            }
-            else {
-                final Object key = reader.next((Object) null);
-                Rows rows = new Rows();
-
-                if (key != null) {
-                    log.debug("Read object [{}]", key);
-
-                    final Object value = reader.getCurrentValue((Object) null);
-
-                    if (value == null) {
-                        close();
-                        return rows;
-                    }
-
-                    if (rawContents) {
-                        final List<String> list = new ArrayList<String>();
-                        list.add(value.toString());
-                        rows.add(RowFactory.getRow(new RowSchema("ad-hoc", new DynamicColumnKey("record")), list));
-                    }
-                    else {
-                        rows = rowParser.valueToRows(registrar, value);
-                    }
+            while (!readerClosed && !rows.isFull()) {
+                final long position = reader.getPosition();
+                if (!nextRecord()) {
+                    endOfFile();
+                    return;
                 }
-                else {
-                    close();
+
+                // This record starts the next split
+                if (position >= end && reader.syncSeen()) {
+                    endOfFile();
+                    return;
                 }
 
-                return rows;
+                // Rows decoded from a value may point to it (e.g. RowThrift, RowBytes): only reuse it in raw mode,
+                // where it is converted to a String right away
+                final Object currentValue = reader.getCurrentValue(rawContents ? value : null);
+                if (currentValue == null) {
+                    endOfFile();
+                    return;
+                }
+
+                if (rawContents) {
+                    value = currentValue;
+                }
+
+                if (!mightMatch(currentValue)) {
+                    continue;
+                }
+
+                if (rawContents) {
+                    rows.add(new RowText(RAW_SCHEMA, currentValue.toString()));
+                }
+                else {
+                    rowParser.valueToRows(registrar, currentValue, rows);
+                }
             }
         }
         catch (IOException e) {
             log.info("IOException reading file {}, skipping", pathname);
 
             close();
+        }
+    }
+
+    /**
+     * Cheap test on the record, before decoding it. Only textual values can be tested: Text values, and BytesWritable
+     * ones outside of raw mode (they are displayed in hexadecimal otherwise).
+     *
+     * @param currentValue value of the record
+     * @return false if none of the rows of the record can match the filter
+     */
+    private boolean mightMatch(final Object currentValue)
+    {
+        if (currentValue instanceof Text) {
+            final Text text = (Text) currentValue;
+            return mightMatch(text.getBytes(), 0, text.getLength());
+        }
+        else if (currentValue instanceof BytesWritable && !rawContents) {
+            final BytesWritable bytes = (BytesWritable) currentValue;
+            return mightMatch(bytes.getBytes(), 0, bytes.getLength());
+        }
+        else {
+            return true;
+        }
+    }
+
+    /**
+     * Move to the next record. The key is never displayed: it is only deserialized when the format requires it.
+     *
+     * @return false at the end of the file
+     * @throws IOException generic I/O error
+     */
+    private boolean nextRecord() throws IOException
+    {
+        if (blockCompressed) {
+            // Values are buffered separately, getCurrentValue can read them without the key being deserialized
+            rawKey.reset();
+            return reader.nextRawKey(rawKey) >= 0;
+        }
+        else {
+            // Keys and values are read as a whole record: reuse the key instance at least
+            key = reader.next(key);
+            return key != null;
+        }
+    }
+
+    /**
+     * In raw mode, skip records by reading their raw key only: the value is neither deserialized nor, for
+     * block-compressed files, decompressed.
+     *
+     * @param n number of records to skip
+     * @return number of records skipped
+     */
+    @Override
+    long skipRecords(final long n)
+    {
+        // Otherwise a record may be decoded into several rows
+        if (!rawContents) {
+            return 0;
+        }
+
+        final SequenceFile.ValueBytes rawValue = blockCompressed ? null : reader.createValueBytes();
 
-            return null;
+        long skipped = 0;
+        try {
+            while (skipped < n) {
+                rawKey.reset();
+                // Values of uncompressed and record-compressed files are inlined with the keys
+                final int keyLength = rawValue == null ? reader.nextRawKey(rawKey) : reader.nextRaw(rawKey, rawValue);
+                if (keyLength < 0) {
+                    endOfFile();
+                    break;
+                }
+                skipped++;
+            }
         }
+        catch (IOException e) {
+            log.info("IOException reading file {}, skipping", pathname);
+
+            close();
+        }
+
+        return skipped;
     }
 }
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.apache.hadoop.io.WritableUtils;
@@ -50,15 +51,14 @@ public class RowSmile extends Row<JsonNodeComparable, Serializable>
     }
 
     /**
-     * Serialize the row into the DataOutput
+     * Serialize the data of the row, without its schema, into the DataOutput
      *
      * @param out DataOutput to write
      * @throws java.io.IOException generic serialization error
      */
     @Override
-    public void write(DataOutput out) throws IOException
+    public void writeData(DataOutput out) throws IOException
     {
-        schema.write(out);
         WritableUtils.writeVInt(out, data.size());
 
         ByteArrayOutputStream outStream = new ByteArrayOutputStream();
@@ -83,7 +83,7 @@ public class RowSmile extends Row<JsonNodeComparable, Serializable>
     @Override
     public void readFields(DataInput in) throws IOException
     {
-        schema.readFields(in);
+        getMutableSchema().readFields(in);
         int numberOfItems = WritableUtils.readVInt(in);
         int smilePayloadSize = WritableUtils.readVInt(in);
 
@@ -128,4 +128,42 @@ public class RowSmile extends Row<JsonNodeComparable, Serializable>
             return item.getDelegate();
         }
     }
+
+    @Override
+    protected void writeJsonValue(JsonGenerator generator, JsonNodeComparable item) throws IOException
+    {
+        final JsonNode node = item == null ? null : item.getDelegate();
+
+        if (node == null || node.isNull()) {
+            generator.writeString("");
+        }
+        else if (node.isTextual()) {
+            generator.writeString(node.textValue());
+        }
+        else if (node.isNumber()) {
+            switch (node.numberType()) {
+                case INT:
+                    generator.writeNumber(node.intValue());
+                    break;
+                case LONG:
+                    generator.writeNumber(node.longValue());
+                    break;
+                case BIG_INTEGER:
+                    generator.writeNumber(node.bigIntegerValue());
+                    break;
+                case BIG_DECIMAL:
+                    generator.writeNumber(node.decimalValue());
+                    break;
+                default:
+                    generator.writeNumber(node.doubleValue());
+            }
+        }
+        else if (node.isBoolean()) {
+            generator.writeBoolean(node.booleanValue());
+        }
+        else {
+            // Objects, arrays, binary: write the tree as is
+            objectMapper.writeTree(generator, node);
+        }
+    }
 }
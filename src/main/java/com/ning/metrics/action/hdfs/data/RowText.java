@@ -17,6 +17,9 @@
 package com.ning.metrics.action.hdfs.data;
 
 import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
 import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
@@ -43,20 +46,19 @@ public class RowText extends Row<String, Serializable>
     public RowText(RowSchema schema, String data)
     {
         this.schema = schema;
-        this.data = new ArrayList<String>();
+        this.data = new ArrayList<String>(1);
         this.data.add(data);
     }
 
     /**
-     * Serialize the row into the DataOutput
+     * Serialize the data of the row, without its schema, into the DataOutput
      *
      * @param out DataOutput to write
      * @throws java.io.IOException generic serialization error
      */
     @Override
-    public void write(DataOutput out) throws IOException
+    public void writeData(DataOutput out) throws IOException
     {
-        schema.write(out);
         WritableUtils.writeVInt(out, data.size());
 
         for (String dataItem : data) {
@@ -76,7 +78,7 @@ public class RowText extends Row<String, Serializable>
     @Override
     public void readFields(DataInput in) throws IOException
     {
-        schema.readFields(in);
+        getMutableSchema().readFields(in);
         int size = WritableUtils.readVInt(in);
 
         data = new ArrayList<String>(size);
@@ -100,4 +102,15 @@ public class RowText extends Row<String, Serializable>
     {
         return item;
     }
+
+    @Override
+    protected void writeJsonValue(JsonGenerator generator, String item) throws IOException
+    {
+        if (item == null) {
+            generator.writeNull();
+        }
+        else {
+            generator.writeString(item);
+        }
+    }
 }
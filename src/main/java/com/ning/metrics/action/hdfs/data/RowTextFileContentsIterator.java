@@ -21,26 +21,26 @@ import com.ning.metrics.action.hdfs.data.parser.BufferedRowsReader;
 import com.ning.metrics.action.hdfs.data.parser.BufferedSmileReader;
 import com.ning.metrics.action.hdfs.data.parser.BufferedThriftReader;
 import com.ning.metrics.action.hdfs.data.parser.RowParser;
-import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
-import com.ning.metrics.action.hdfs.data.schema.RowSchema;
 import com.ning.metrics.action.schema.Registrar;
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Iterator for flat file (can contain binary data)
  */
 class RowTextFileContentsIterator extends RowFileContentsIterator
 {
+    private static final int LINE_BUFFER_SIZE = 64 * 1024;
+
     private final InputStream in;
     private final boolean binary;
-    private final BufferedReader reader;
+    private final LineReader reader;
+    // Reused for every line
+    private final Text line = new Text();
     private final BufferedRowsReader streamReader;
 
     public RowTextFileContentsIterator(final String pathname, final RowParser rowParser, final Registrar registrar, final InputStream origStream, final boolean rawContents) throws IOException
@@ -56,8 +56,8 @@ class RowTextFileContentsIterator extends RowFileContentsIterator
             suffix = tokenizedPathname[tokenizedPathname.length - 2];
         }
         else {
-            // Nope
-            in = origStream;
+            // No compression suffix, look at the first bytes of the file
+            in = DecompressedStreamFactory.detectStream(origStream);
         }
 
         // Then handling serialization format
@@ -72,82 +72,108 @@ class RowTextFileContentsIterator extends RowFileContentsIterator
         }
         else {
             streamReader = null;
-            reader = new BufferedReader(new InputStreamReader(in));
+            reader = new LineReader(in, LINE_BUFFER_SIZE);
         }
     }
 
     @Override
-    public void close()
+    void closeReader()
     {
-        if (!readerClosed) {
-            try {
-                if (reader != null) {
-                    reader.close();
-                }
-                else {
-                    in.close();
-                }
-                readerClosed = true;
+        try {
+            if (reader != null) {
+                reader.close();
             }
-            catch (IOException e) {
-                log.warn("Unable to close reader", e);
+            else {
+                in.close();
             }
         }
+        catch (IOException e) {
+            log.warn("Unable to close reader", e);
+        }
     }
 
     /**
      * Read one or more rows
      *
-     * @return the next row(s)
+     * @param rows batch to fill
      */
     @Override
-    Rows readNextRows()
+    void readNextRows(final RowBatch rows)
     {
         try {
             if (readerClosed) {
-                return null;
+                return;
             }
             // Non-binary payload
             else if (!binary) {
-                return readLine();
+                readLines(rows);
             }
-            else {
-                final Rows rows = streamReader.readNext();
-
-                if (rows == null) {
-                    close();
-                }
-                return rows;
+            else if (!streamReader.readNext(rows)) {
+                endOfFile();
             }
         }
         catch (IOException e) {
             log.info("IOException reading file {}, skipping", pathname);
 
             close();
-
-            return null;
         }
     }
 
-    private Rows readLine() throws IOException
+    /**
+     * Read a batch of lines. Lines are scanned as bytes into a reused buffer and only decoded into Strings for the rows.
+     *
+     * @param rows batch to fill
+     * @throws IOException generic I/O Exception
+     */
+    private void readLines(final RowBatch rows) throws IOException
     {
-        Rows rows = new Rows();
-        final String value = reader.readLine();
+        while (!rows.isFull()) {
+            // Number of bytes consumed, including the end of line
+            if (reader.readLine(line) == 0) {
+                endOfFile();
+                break;
+            }
 
-        if (value == null) {
-            close();
-            return rows;
+            // Rows of a line are substrings of it
+            if (!mightMatch(line.getBytes(), 0, line.getLength())) {
+                continue;
+            }
+
+            // UTF-8, malformed input is replaced
+            final String value = line.toString();
+            if (rawContents) {
+                rows.add(new RowText(RAW_SCHEMA, value));
+            }
+            else {
+                rowParser.valueToRows(registrar, value, rows);
+            }
         }
+    }
 
-        if (rawContents) {
-            final List<String> list = new ArrayList<String>();
-            list.add(value);
-            rows.add(RowFactory.getRow(new RowSchema("ad-hoc", new DynamicColumnKey("record")), list));
+    @Override
+    long skipRecords(final long n)
+    {
+        // Otherwise a line may be decoded into several rows
+        if (binary || !rawContents) {
+            return 0;
         }
-        else {
-            rows = rowParser.valueToRows(registrar, value);
+
+        long skipped = 0;
+        try {
+            while (skipped < n) {
+                if (reader.readLine(line) == 0) {
+                    endOfFile();
+                    break;
+                }
+                skipped++;
+            }
+        }
+        catch (IOException e) {
+            log.info("IOException reading file {}, skipping", pathname);
+
+            close();
         }
 
-        return rows;
+        return skipped;
     }
 }
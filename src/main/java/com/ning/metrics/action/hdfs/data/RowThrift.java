@@ -23,6 +23,7 @@ import com.ning.metrics.serialization.thrift.item.DataItemFactory;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.thrift.protocol.TType;
@@ -80,9 +81,8 @@ public class RowThrift extends Row<DataItem, Serializable>
     }
 
     @Override
-    public void write(DataOutput out) throws IOException
+    public void writeData(DataOutput out) throws IOException
     {
-        schema.write(out);
         WritableUtils.writeVInt(out, data.size());
 
         for (DataItem dataItem : data) {
@@ -93,7 +93,7 @@ public class RowThrift extends Row<DataItem, Serializable>
     @Override
     public void readFields(DataInput in) throws IOException
     {
-        schema.readFields(in);
+        getMutableSchema().readFields(in);
         int size = WritableUtils.readVInt(in);
 
         data = new ArrayList<DataItem>(size);
@@ -128,4 +128,36 @@ public class RowThrift extends Row<DataItem, Serializable>
                 return dataItem.getString();
         }
     }
+
+    @Override
+    protected void writeJsonValue(JsonGenerator generator, DataItem dataItem) throws IOException
+    {
+        if (dataItem == null) {
+            generator.writeString("");
+            return;
+        }
+
+        switch (dataItem.getThriftType()) {
+            case TType.BOOL:
+                generator.writeBoolean(dataItem.getBoolean());
+                break;
+            case TType.BYTE:
+                generator.writeNumber(dataItem.getByte());
+                break;
+            case TType.I16:
+                generator.writeNumber(dataItem.getShort());
+                break;
+            case TType.I32:
+                generator.writeNumber(dataItem.getInteger());
+                break;
+            case TType.I64:
+                generator.writeNumber(dataItem.getLong());
+                break;
+            case TType.DOUBLE:
+                generator.writeNumber(dataItem.getDouble());
+                break;
+            default:
+                generator.writeString(dataItem.getString());
+        }
+    }
 }
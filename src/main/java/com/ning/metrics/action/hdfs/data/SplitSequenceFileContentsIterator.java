@@ -0,0 +1,394 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.google.common.collect.AbstractIterator;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decode a large SequenceFile in parallel.
+ * <p/>
+ * The file is cut into splits, each read by its own reader (positioned with SequenceFile.Reader#sync), on a shared
+ * worker pool. A window of splits is decoded ahead of the client, each into a bounded buffer of row batches, and rows
+ * are returned in file order. Decoders with a full buffer give their worker thread back, so that slow clients can't
+ * starve the pool. A split which can't be read until its end fails the iterator, rather than dropping records from the
+ * middle of the file.
+ * <p/>
+ * Skipping rows before reading any falls back to a single sequential reader, which can skip records without
+ * decoding them.
+ */
+class SplitSequenceFileContentsIterator extends AbstractIterator<Row> implements CloseableIterator<Row>
+{
+    private final RowFileContentsIteratorFactory factory;
+    private final FileSystem fs;
+    private final FileStatus status;
+    private final boolean raw;
+    // Reader positioned at the beginning of the file
+    private final RowSequenceFileContentsIterator first;
+    private final RowCountCache rowCountCache;
+    private final ExecutorService executor;
+    private final long splitSize;
+    private final int window;
+    private final int batchSize;
+    private final int bufferedBatches;
+
+    // Splits being decoded, in file order
+    private final LinkedList<SplitDecoder> decoders = new LinkedList<SplitDecoder>();
+    private long nextSplitStart = 0;
+    private Iterator<Row> batch = Collections.<Row>emptyList().iterator();
+    private boolean started = false;
+    private boolean sequential = false;
+    // Number of rows returned so far, and whether all splits were read until their end
+    private long rowsRead = 0;
+    private boolean complete = true;
+
+    SplitSequenceFileContentsIterator(final RowFileContentsIteratorFactory factory,
+                                      final FileSystem fs,
+                                      final FileStatus status,
+                                      final boolean raw,
+                                      final RowSequenceFileContentsIterator first,
+                                      final RowCountCache rowCountCache,
+                                      final ExecutorService executor,
+                                      final long splitSize,
+                                      final int window,
+                                      final int bufferRows)
+    {
+        this.factory = factory;
+        this.fs = fs;
+        this.status = status;
+        this.raw = raw;
+        this.first = first;
+        this.rowCountCache = rowCountCache;
+        this.executor = executor;
+        this.splitSize = splitSize;
+        this.window = window;
+        this.batchSize = Math.min(RowBatch.DEFAULT_CAPACITY, bufferRows);
+        this.bufferedBatches = Math.max(1, bufferRows / batchSize);
+
+        // Until we know whether the file is read sequentially
+        first.countRows(rowCountCache, status);
+    }
+
+    @Override
+    protected Row computeNext()
+    {
+        if (!started) {
+            start();
+        }
+
+        if (sequential) {
+            return first.hasNext() ? first.next() : endOfData();
+        }
+
+        while (!batch.hasNext()) {
+            if (decoders.isEmpty()) {
+                if (complete && rowCountCache != null) {
+                    rowCountCache.putRowCount(status, raw, rowsRead);
+                }
+                return endOfData();
+            }
+
+            final SplitDecoder decoder = decoders.getFirst();
+            final List<Row> nextBatch = decoder.take();
+            if (nextBatch == decoder.endOfContent) {
+                decoders.removeFirst();
+                if (decoder.error != null) {
+                    close();
+                    if (decoder.error instanceof Error) {
+                        throw (Error) decoder.error;
+                    }
+                    else if (decoder.error instanceof RuntimeException) {
+                        throw (RuntimeException) decoder.error;
+                    }
+                    else {
+                        throw new RowAccessException("Unable to read " + status.getPath(), decoder.error);
+                    }
+                }
+                complete = complete && decoder.reachedEnd;
+                fill();
+            }
+            else {
+                batch = nextBatch.iterator();
+            }
+        }
+
+        rowsRead++;
+        return batch.next();
+    }
+
+    /**
+     * Skip rows, without decoding them if no row has been read yet
+     *
+     * @param n number of rows to skip
+     * @return number of rows skipped, less than n if the end of the file has been reached
+     */
+    long skip(final long n)
+    {
+        if (!started) {
+            started = true;
+            sequential = true;
+        }
+
+        if (sequential) {
+            return first.skip(n);
+        }
+
+        long skipped = 0;
+        while (skipped < n && hasNext()) {
+            next();
+            skipped++;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public void close()
+    {
+        if (!started || sequential) {
+            first.close();
+        }
+
+        for (final SplitDecoder decoder : decoders) {
+            decoder.cancel();
+        }
+        decoders.clear();
+        // Not until the end
+        complete = false;
+    }
+
+    private void start()
+    {
+        started = true;
+
+        // The row count is recorded for the whole file, not for the first split
+        first.countRows(null, null);
+        first.setEnd(splitSize);
+        final SplitDecoder decoder = new SplitDecoder(0, splitSize);
+        decoder.start();
+        decoders.add(decoder);
+        nextSplitStart = splitSize;
+
+        fill();
+    }
+
+    private void fill()
+    {
+        while (decoders.size() < window && nextSplitStart < status.getLen()) {
+            final SplitDecoder decoder = new SplitDecoder(nextSplitStart, nextSplitStart + splitSize);
+            decoder.start();
+            decoders.add(decoder);
+            nextSplitStart += splitSize;
+        }
+    }
+
+    /**
+     * Decode a single split into a bounded buffer of row batches.
+     * <p/>
+     * A decoder never blocks a worker thread waiting for the client: when its buffer is full, it returns and is
+     * resubmitted once the client has taken a batch. At most one thread runs a decoder at a time (see scheduled).
+     */
+    private final class SplitDecoder implements Runnable
+    {
+        // Marker for the end of the content (compared by reference)
+        private final List<Row> endOfContent = new ArrayList<Row>(0);
+
+        private final long start;
+        private final long end;
+        private final BlockingQueue<List<Row>> batches = new ArrayBlockingQueue<List<Row>>(bufferedBatches);
+        // Batches decoded but not buffered yet, the buffer being full
+        private final LinkedList<List<Row>> outbox = new LinkedList<List<Row>>();
+        private volatile boolean cancelled = false;
+        private volatile boolean reachedEnd = false;
+        private volatile Throwable error = null;
+        // Whether the decoder is submitted or running: the thread which sets it owns the decoder state below
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile Future<?> future = null;
+        private RowSequenceFileContentsIterator content;
+        private boolean done = false;
+
+        private SplitDecoder(final long start, final long end)
+        {
+            this.start = start;
+            this.end = end;
+            this.content = start == 0 ? first : null;
+        }
+
+        private void start()
+        {
+            scheduled.set(true);
+            future = executor.submit(this);
+        }
+
+        /**
+         * Called by the client after taking a batch: resubmit the decoder if it stopped on a full buffer
+         */
+        private void resume()
+        {
+            if (scheduled.compareAndSet(false, true)) {
+                future = executor.submit(this);
+            }
+        }
+
+        private void cancel()
+        {
+            cancelled = true;
+            // A decoder which isn't running won't run anymore: release its reader here. Running decoders release
+            // their reader themselves.
+            if (scheduled.compareAndSet(false, true) || future.cancel(false)) {
+                release();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            do {
+                if (!decode()) {
+                    return;
+                }
+                // Buffer full: give the thread back until the client catches up
+                scheduled.set(false);
+            }
+            // The client may have taken a batch (or cancelled) before it could see the decoder was stopped
+            while ((cancelled || batches.remainingCapacity() > 0) && scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * Decode until the buffer is full or the end of the split
+         *
+         * @return true if the buffer is full, false if the decoder is done
+         */
+        private boolean decode()
+        {
+            if (cancelled) {
+                release();
+                return false;
+            }
+
+            if (!flush()) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+
+            try {
+                if (content == null) {
+                    content = factory.openSplit(fs, status.getPath(), raw, start, end);
+                }
+
+                List<Row> rows = new ArrayList<Row>(batchSize);
+                while (!cancelled && content.hasNext()) {
+                    rows.add(content.next());
+
+                    if (rows.size() == batchSize) {
+                        outbox.add(rows);
+                        rows = new ArrayList<Row>(batchSize);
+                        if (!flush()) {
+                            return true;
+                        }
+                    }
+                }
+
+                if (cancelled) {
+                    release();
+                    return false;
+                }
+
+                if (!rows.isEmpty()) {
+                    outbox.add(rows);
+                }
+                reachedEnd = content.isEndOfFile();
+                if (!reachedEnd) {
+                    // The reader stopped on an I/O error, see RowSequenceFileContentsIterator#readNextRows
+                    error = new RowAccessException(String.format("Unable to read %s at offset %d until the end of the split", status.getPath(), start));
+                }
+            }
+            catch (IOException e) {
+                // Unlike an error at the end of a sequential read, skipping the split would silently drop records
+                // from the middle of the file
+                error = new RowAccessException(String.format("Unable to read %s at offset %d", status.getPath(), start), e);
+            }
+            catch (Throwable e) {
+                // Including Errors: the client must not wait for the end of the split forever
+                error = e;
+            }
+
+            release();
+            done = true;
+            outbox.add(endOfContent);
+            return !flush();
+        }
+
+        /**
+         * Move the decoded batches to the buffer, without blocking
+         *
+         * @return true if all decoded batches are buffered
+         */
+        private boolean flush()
+        {
+            while (!outbox.isEmpty()) {
+                if (!batches.offer(outbox.getFirst())) {
+                    return false;
+                }
+                outbox.removeFirst();
+            }
+
+            return true;
+        }
+
+        private void release()
+        {
+            if (content != null) {
+                content.close();
+                content = null;
+            }
+        }
+
+        private List<Row> take()
+        {
+            final List<Row> rows;
+            try {
+                rows = batches.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RowAccessException("Interrupted while reading " + status.getPath(), e);
+            }
+
+            if (rows != endOfContent) {
+                resume();
+            }
+            return rows;
+        }
+    }
+}
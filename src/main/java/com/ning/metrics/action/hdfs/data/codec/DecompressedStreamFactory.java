@@ -16,17 +16,164 @@
 
 package com.ning.metrics.action.hdfs.data.codec;
 
-import com.ning.compress.lzf.LZFInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Registry of the compression formats of flat files.
+ * <p/>
+ * The codecs configured in Hadoop (io.compression.codecs: gzip, bzip2, deflate, ... and snappy if available) are
+ * registered by their default extension, in addition to lzf. Additional formats can be registered at runtime.
+ */
 public class DecompressedStreamFactory
 {
+    private static final Logger log = LoggerFactory.getLogger(DecompressedStreamFactory.class);
+
+    private static final String SNAPPY_CODEC = "org.apache.hadoop.io.compress.SnappyCodec";
+    // Longest magic number we look for
+    private static final int MAGIC_LENGTH = 4;
+
+    private static final ConcurrentMap<String, StreamCodec> codecs = new ConcurrentHashMap<String, StreamCodec>();
+
+    static {
+        register("lzf", new StreamCodec()
+        {
+            @Override
+            public InputStream wrap(final InputStream stream) throws IOException
+            {
+                // On the reading thread, until the ParallelLZFStreamCodec is registered
+                return new ParallelLZFInputStream(stream);
+            }
+        });
+
+        registerHadoopCodecs(new Configuration());
+    }
+
+    /**
+     * Register a compression format
+     *
+     * @param fileSuffix suffix of the compressed files, without the dot (e.g. gz)
+     * @param codec      codec to decompress these files
+     */
+    public static void register(final String fileSuffix, final StreamCodec codec)
+    {
+        codecs.put(fileSuffix, codec);
+    }
+
+    private static void registerHadoopCodecs(final Configuration conf)
+    {
+        final List<Class<? extends CompressionCodec>> codecClasses = new ArrayList<Class<? extends CompressionCodec>>();
+        final List<Class<? extends CompressionCodec>> configuredCodecClasses = CompressionCodecFactory.getCodecClasses(conf);
+        if (configuredCodecClasses != null) {
+            codecClasses.addAll(configuredCodecClasses);
+        }
+        else {
+            codecClasses.add(GzipCodec.class);
+            codecClasses.add(DefaultCodec.class);
+            codecClasses.add(BZip2Codec.class);
+        }
+
+        // Not part of the default codecs in all Hadoop versions
+        try {
+            final Class<? extends CompressionCodec> snappyCodecClass = Class.forName(SNAPPY_CODEC).asSubclass(CompressionCodec.class);
+            if (!codecClasses.contains(snappyCodecClass)) {
+                codecClasses.add(snappyCodecClass);
+            }
+        }
+        catch (ClassNotFoundException e) {
+            log.info("Snappy codec not available, .snappy files won't be decompressed");
+        }
+
+        for (final Class<? extends CompressionCodec> codecClass : codecClasses) {
+            final CompressionCodec codec = ReflectionUtils.newInstance(codecClass, conf);
+            // e.g. .gz
+            final String suffix = codec.getDefaultExtension().substring(1);
+            // Don't override explicit registrations
+            codecs.putIfAbsent(suffix, new HadoopStreamCodec(codec));
+        }
+    }
+
+    /**
+     * Decompress a stream, based on the suffix of the file
+     *
+     * @param fileSuffix suffix of the file
+     * @param stream     stream to decompress
+     * @return the decompressed stream, null if the suffix isn't a known compression format
+     * @throws IOException if the stream can't be decompressed
+     */
     public static InputStream wrapStream(final String fileSuffix, final InputStream stream) throws IOException
     {
-        if (fileSuffix.equals("lzf")) {
-            return new LZFInputStream(stream);
+        final StreamCodec codec = codecs.get(fileSuffix);
+        if (codec != null) {
+            return codec.wrap(stream);
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Decompress a stream whose file suffix doesn't tell the compression format, by looking at its first bytes
+     *
+     * @param stream stream to inspect
+     * @return the decompressed stream, or the stream itself if no known compression format was detected
+     * @throws IOException if the stream can't be read
+     */
+    public static InputStream detectStream(final InputStream stream) throws IOException
+    {
+        final PushbackInputStream pushbackStream = new PushbackInputStream(stream, MAGIC_LENGTH);
+
+        final byte[] header = new byte[MAGIC_LENGTH];
+        int length = 0;
+        while (length < MAGIC_LENGTH) {
+            final int read = pushbackStream.read(header, length, MAGIC_LENGTH - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        pushbackStream.unread(header, 0, length);
+
+        final String fileSuffix = detectSuffix(header, length);
+        if (fileSuffix != null) {
+            final InputStream decompressedStream = wrapStream(fileSuffix, pushbackStream);
+            if (decompressedStream != null) {
+                return decompressedStream;
+            }
+        }
+
+        return pushbackStream;
+    }
+
+    private static String detectSuffix(final byte[] header, final int length)
+    {
+        if (length >= 2 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B) {
+            return "gz";
+        }
+        else if (length >= 4 && header[0] == 'B' && header[1] == 'Z' && header[2] == 'h' && header[3] >= '1' && header[3] <= '9') {
+            return "bz2";
+        }
+        else if (length >= 3 && header[0] == 'Z' && header[1] == 'V' && (header[2] == 0 || header[2] == 1)) {
+            return "lzf";
+        }
+        // zlib header, with the usual compression levels only: 0x78 0x5E is plain text ("x^")
+        else if (length >= 2 && header[0] == 0x78 && (header[1] == 0x01 || (header[1] & 0xFF) == 0x9C || (header[1] & 0xFF) == 0xDA)) {
+            return "deflate";
         }
         else {
             return null;
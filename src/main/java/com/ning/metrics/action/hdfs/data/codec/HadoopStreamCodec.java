@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.codec;
+
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Hadoop CompressionCodec, decompressing with pooled decompressors (see CodecPool)
+ */
+public class HadoopStreamCodec implements StreamCodec
+{
+    private final CompressionCodec codec;
+
+    public HadoopStreamCodec(final CompressionCodec codec)
+    {
+        this.codec = codec;
+    }
+
+    @Override
+    public InputStream wrap(final InputStream stream) throws IOException
+    {
+        // May be null, if the codec doesn't use decompressors
+        final Decompressor decompressor = CodecPool.getDecompressor(codec);
+
+        final InputStream decompressedStream;
+        try {
+            decompressedStream = codec.createInputStream(stream, decompressor);
+        }
+        catch (IOException e) {
+            CodecPool.returnDecompressor(decompressor);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            // e.g. native library not available
+            CodecPool.returnDecompressor(decompressor);
+            throw new IOException(String.format("Unable to decompress stream with %s", codec.getClass().getName()), e);
+        }
+
+        return new FilterInputStream(decompressedStream)
+        {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException
+            {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                try {
+                    super.close();
+                }
+                finally {
+                    // Back to the pool for the next file
+                    CodecPool.returnDecompressor(decompressor);
+                }
+            }
+        };
+    }
+}
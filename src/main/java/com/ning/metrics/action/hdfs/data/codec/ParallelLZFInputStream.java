@@ -0,0 +1,330 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.codec;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * LZF stream decompressing several chunks concurrently.
+ * <p/>
+ * Raw chunks are read ahead on the reading thread, and decompressed on a worker pool shared by all streams (see
+ * ParallelLZFStreamCodec). At most a window of chunks is in flight: the reading thread only waits on decompression
+ * when it catches up with the workers. Each stream decompresses into its own ring of window buffers, which are reused
+ * from chunk to chunk.
+ */
+public class ParallelLZFInputStream extends InputStream
+{
+    // Chunks are at most 64KB, compressed or not
+    private static final int MAX_CHUNK_LENGTH = 0xFFFF;
+
+    private static final byte BLOCK_TYPE_NON_COMPRESSED = 0;
+    private static final byte BLOCK_TYPE_COMPRESSED = 1;
+    private static final int HEADER_LENGTH_NON_COMPRESSED = 5;
+    private static final int HEADER_LENGTH_COMPRESSED = 7;
+    // Control bytes below this value start a run of literals, the others a back reference
+    private static final int MAX_LITERAL_CONTROL = 1 << 5;
+    private static final int MAX_SHORT_REFERENCE_LENGTH = 7;
+
+    private final DataInputStream in;
+    private final ExecutorService executor;
+    private final int window;
+
+    // Ring of buffers, allocated on first use: the chunk being read by the client is done with by the time its slot
+    // is used again
+    private final byte[][] rawBuffers;
+    private final byte[][] decodedBuffers;
+    private int nextSlot = 0;
+
+    // Chunks being decompressed, in stream order
+    private final Queue<Chunk> chunks = new ArrayDeque<Chunk>();
+    private boolean endOfInput = false;
+    private boolean closed = false;
+
+    private byte[] buffer = new byte[0];
+    private int limit = 0;
+    private int position = 0;
+
+    /**
+     * Decompress the chunks on the reading thread, one at a time
+     *
+     * @param in LZF stream
+     */
+    public ParallelLZFInputStream(final InputStream in)
+    {
+        this(in, MoreExecutors.sameThreadExecutor(), 1);
+    }
+
+    /**
+     * @param in       LZF stream
+     * @param executor pool decompressing the chunks, not shut down when closing the stream
+     * @param window   maximum number of chunks decompressed ahead of the reader
+     */
+    public ParallelLZFInputStream(final InputStream in, final ExecutorService executor, final int window)
+    {
+        this.in = new DataInputStream(in);
+        this.executor = executor;
+        this.window = window;
+        this.rawBuffers = new byte[window][];
+        this.decodedBuffers = new byte[window][];
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!fillBuffer()) {
+            return -1;
+        }
+
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+
+        final int length = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, length);
+        position += length;
+
+        return length;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (final Chunk chunk : chunks) {
+            chunk.length.cancel(false);
+        }
+        chunks.clear();
+        in.close();
+    }
+
+    /**
+     * Make sure there are bytes to read in the current buffer
+     *
+     * @return false at the end of the stream
+     * @throws IOException I/O error or corrupted stream
+     */
+    private boolean fillBuffer() throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (position == limit) {
+            // Keep the workers busy. The current buffer has been read, its slot can be reused
+            while (!endOfInput && chunks.size() < window) {
+                readChunk();
+            }
+
+            final Chunk chunk = chunks.poll();
+            if (chunk == null) {
+                return false;
+            }
+
+            buffer = chunk.data;
+            limit = get(chunk.length);
+            position = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Read the next raw chunk and schedule its decompression
+     *
+     * @throws IOException I/O error or corrupted stream
+     */
+    private void readChunk() throws IOException
+    {
+        final int first = in.read();
+        if (first == -1) {
+            endOfInput = true;
+            return;
+        }
+
+        final byte[] header = new byte[HEADER_LENGTH_COMPRESSED];
+        header[0] = (byte) first;
+        try {
+            in.readFully(header, 1, HEADER_LENGTH_NON_COMPRESSED - 1);
+        }
+        catch (EOFException e) {
+            throw new IOException("Corrupt LZF stream: truncated chunk header", e);
+        }
+        if (header[0] != 'Z' || header[1] != 'V') {
+            throw new IOException("Corrupt LZF stream: chunk doesn't start with 'ZV'");
+        }
+
+        final int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % window;
+        if (decodedBuffers[slot] == null) {
+            decodedBuffers[slot] = new byte[MAX_CHUNK_LENGTH];
+        }
+        final byte[] decoded = decodedBuffers[slot];
+
+        final int length = readLength(header, 3);
+        if (header[2] == BLOCK_TYPE_NON_COMPRESSED) {
+            // Nothing to decompress
+            in.readFully(decoded, 0, length);
+            chunks.add(new Chunk(decoded, Futures.immediateFuture(length)));
+        }
+        else if (header[2] == BLOCK_TYPE_COMPRESSED) {
+            in.readFully(header, HEADER_LENGTH_NON_COMPRESSED, HEADER_LENGTH_COMPRESSED - HEADER_LENGTH_NON_COMPRESSED);
+            final int decodedLength = readLength(header, HEADER_LENGTH_NON_COMPRESSED);
+
+            if (rawBuffers[slot] == null) {
+                rawBuffers[slot] = new byte[MAX_CHUNK_LENGTH];
+            }
+            final byte[] raw = rawBuffers[slot];
+            in.readFully(raw, 0, length);
+
+            chunks.add(new Chunk(decoded, executor.submit(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    return decodeChunk(raw, length, decoded, decodedLength);
+                }
+            })));
+        }
+        else {
+            throw new IOException(String.format("Corrupt LZF stream: unknown chunk type %d", header[2]));
+        }
+    }
+
+    private int get(final Future<Integer> length) throws IOException
+    {
+        try {
+            return length.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing LZF stream", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to decompress LZF chunk", e.getCause());
+        }
+    }
+
+    private static int readLength(final byte[] header, final int offset)
+    {
+        return ((header[offset] & 0xFF) << 8) | (header[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Decompress the content of a chunk (without its header)
+     *
+     * @param in        compressed data
+     * @param inLength  length of the compressed data
+     * @param out       buffer to decompress into
+     * @param outLength length of the decompressed data, from the chunk header
+     * @return the number of decompressed bytes
+     * @throws IOException if the chunk is corrupted
+     */
+    static int decodeChunk(final byte[] in, final int inLength, final byte[] out, final int outLength) throws IOException
+    {
+        int inPosition = 0;
+        int outPosition = 0;
+        try {
+            while (outPosition < outLength) {
+                final int control = in[inPosition++] & 0xFF;
+                if (control < MAX_LITERAL_CONTROL) {
+                    // Run of control + 1 literals
+                    final int length = control + 1;
+                    if (outPosition + length > outLength) {
+                        break;
+                    }
+                    System.arraycopy(in, inPosition, out, outPosition, length);
+                    inPosition += length;
+                    outPosition += length;
+                }
+                else {
+                    // Back reference to already decompressed data, possibly overlapping the bytes being written
+                    int length = control >> 5;
+                    if (length == MAX_SHORT_REFERENCE_LENGTH) {
+                        length += in[inPosition++] & 0xFF;
+                    }
+                    length += 2;
+
+                    int reference = outPosition - ((control & 0x1F) << 8) - (in[inPosition++] & 0xFF) - 1;
+                    if (reference < 0 || outPosition + length > outLength) {
+                        break;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        out[outPosition++] = out[reference++];
+                    }
+                }
+            }
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZF stream: truncated chunk", e);
+        }
+
+        // The buffers are reused: don't trust data past the chunk
+        if (inPosition != inLength || outPosition != outLength) {
+            throw new IOException(String.format("Corrupt LZF stream: chunk of %d bytes decompressed into %d bytes, expected %d bytes from %d bytes",
+                inPosition, outPosition, outLength, inLength));
+        }
+
+        return outLength;
+    }
+
+    private static final class Chunk
+    {
+        // Decompressed data, valid once the length is known
+        private final byte[] data;
+        private final Future<Integer> length;
+
+        private Chunk(final byte[] data, final Future<Integer> length)
+        {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.codec;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owner of the pool decompressing LZF chunks, shared by all .lzf streams (see ParallelLZFInputStream).
+ * <p/>
+ * Until it is created, and registered in the DecompressedStreamFactory, LZF streams are decompressed on the reading
+ * thread.
+ */
+@Singleton
+public class ParallelLZFStreamCodec implements StreamCodec
+{
+    private final ExecutorService executor;
+    private final int window;
+
+    @Inject
+    public ParallelLZFStreamCodec(final ActionCoreConfig config)
+    {
+        this(Executors.newFixedThreadPool(config.getDecoderLZFThreads(), new ThreadFactoryBuilder().setNameFormat("lzf-decoder-%d").setDaemon(true).build()),
+            config.getDecoderLZFWindow());
+        DecompressedStreamFactory.register("lzf", this);
+    }
+
+    public ParallelLZFStreamCodec(final ExecutorService executor, final int window)
+    {
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public InputStream wrap(final InputStream stream) throws IOException
+    {
+        return new ParallelLZFInputStream(stream, executor, window);
+    }
+}
@@ -16,9 +16,15 @@
 
 package com.ning.metrics.action.hdfs.data.parser;
 
-import com.ning.metrics.action.hdfs.data.Rows;
+import com.ning.metrics.action.hdfs.data.RowBatch;
 
 public interface BufferedRowsReader
 {
-    Rows readNext();
+    /**
+     * Decode events until the batch is full or the end of the stream is reached
+     *
+     * @param rows batch to fill
+     * @return false if the end of the stream has been reached and no row was added
+     */
+    boolean readNext(RowBatch rows);
 }
@@ -16,7 +16,7 @@
 
 package com.ning.metrics.action.hdfs.data.parser;
 
-import com.ning.metrics.action.hdfs.data.Rows;
+import com.ning.metrics.action.hdfs.data.RowBatch;
 import com.ning.metrics.action.schema.Registrar;
 import com.ning.metrics.serialization.smile.SmileEnvelopeEventDeserializer;
 
@@ -25,8 +25,6 @@ import java.io.InputStream;
 
 public class BufferedSmileReader implements BufferedRowsReader
 {
-    private static final int DEFAULT_BUFFER_SIZE = 1000;
-
     private final Registrar registrar;
     private final SmileEnvelopeEventDeserializer deserializer;
 
@@ -37,22 +35,15 @@ public class BufferedSmileReader implements BufferedRowsReader
     }
 
     @Override
-    public Rows readNext()
+    public boolean readNext(final RowBatch rows)
     {
-        final Rows rows = new Rows();
-
         int i = 0;
-        while (deserializer.hasNextEvent() && i < DEFAULT_BUFFER_SIZE) {
+        while (!rows.isFull() && deserializer.hasNextEvent()) {
             SmileRowSerializer.eventToRow(registrar, deserializer, rows);
             i++;
         }
 
         // Signal EOF
-        if (rows.size() == 0) {
-            return null;
-        }
-        else {
-            return rows;
-        }
+        return i > 0;
     }
 }
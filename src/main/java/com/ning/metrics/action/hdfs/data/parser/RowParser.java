@@ -18,7 +18,7 @@ package com.ning.metrics.action.hdfs.data.parser;
 
 import com.ning.metrics.action.binder.config.ActionCoreConfig;
 import com.ning.metrics.action.hdfs.data.RowAccessException;
-import com.ning.metrics.action.hdfs.data.Rows;
+import com.ning.metrics.action.hdfs.data.RowBatch;
 import com.ning.metrics.action.schema.Registrar;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -26,14 +26,29 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Dispatch values read from files to the RowSerializer which understands them.
+ * <p/>
+ * Serializers are discovered via the ServiceLoader (META-INF/services/com.ning.metrics.action.hdfs.data.parser.RowSerializer).
+ * The first serializer accepting a value wins: serializers listed in action.hadoop.io.row.serializations come first,
+ * in the configured order, followed by the discovered ones, in classpath order. Serializers have no priority of their
+ * own: when several accept the same values (e.g. ThriftRowSerializer and SmileRowSerializer both accept InputStreams),
+ * list the one to use in action.hadoop.io.row.serializations. The choice is cached per value class (the other
+ * serializers are never tried for that class), hence RowSerializer#accept should only depend on the class of the value.
+ */
 public class RowParser implements Serializable
 {
     private static final Logger log = LoggerFactory.getLogger(RowParser.class);
 
-    private final Map<String, RowSerializer> serializations = new HashMap<String, RowSerializer>();
+    // Ordered by priority
+    private final List<RowSerializer> serializations = new ArrayList<RowSerializer>();
+    private final ConcurrentMap<Class<?>, RowSerializer> dispatchTable = new ConcurrentHashMap<Class<?>, RowSerializer>();
     private final ClassLoader classLoader;
 
     @Inject
@@ -41,17 +56,22 @@ public class RowParser implements Serializable
     {
         classLoader = RowParser.class.getClassLoader();
 
-        final String defaultSerializations = "" +
-            "com.ning.metrics.action.hdfs.data.parser.ThriftEnvelopeRowSerializer," +
-            "com.ning.metrics.action.hdfs.data.parser.ThriftRowSerializer," +
-            "com.ning.metrics.action.hdfs.data.parser.SmileRowSerializer," +
-            "com.ning.metrics.action.hdfs.data.parser.WritableRowSerializer," +
-            "com.ning.metrics.action.hdfs.data.parser.StringRowSerializer,";
+        final List<RowSerializer> discovered = new ArrayList<RowSerializer>();
+        for (final RowSerializer serializer : ServiceLoader.load(RowSerializer.class, classLoader)) {
+            discovered.add(serializer);
+        }
+
+        // Configured serializers first, even if they are not registered with the ServiceLoader
+        for (final String serializerName : StringUtils.split(conf.getRowSerializations(), ",")) {
+            final RowSerializer serializer = find(discovered, serializerName.trim());
+            if (serializer != null) {
+                discovered.remove(serializer);
+                serializations.add(serializer);
+                continue;
+            }
 
-        // TODO ServiceLoader
-        for (final String serializerName : StringUtils.split(defaultSerializations + conf.getRowSerializations(), ",")) {
             try {
-                add(serializerName);
+                add(serializerName.trim());
             }
             catch (ClassNotFoundException e) {
                 log.warn("Ignoring specified RowSerializer [{}], as it is not in classpath", serializerName);
@@ -63,13 +83,25 @@ public class RowParser implements Serializable
                 log.warn("Ignoring specified RowSerializer [{}]: {}", serializerName, e);
             }
         }
+        serializations.addAll(discovered);
+    }
+
+    private RowSerializer find(final List<RowSerializer> serializers, final String serializationName)
+    {
+        for (final RowSerializer serializer : serializers) {
+            if (serializer.getClass().getName().equals(serializationName)) {
+                return serializer;
+            }
+        }
+
+        return null;
     }
 
     @SuppressWarnings("unchecked")
     private void add(final String serializationName) throws ClassNotFoundException, IllegalAccessException, InstantiationException
     {
         final Class<? extends RowSerializer> serializionClass = (Class<? extends RowSerializer>) Class.forName(serializationName, true, classLoader);
-        serializations.put(serializationName, serializionClass.newInstance());
+        serializations.add(serializionClass.newInstance());
     }
 
     /**
@@ -77,14 +109,29 @@ public class RowParser implements Serializable
      *
      * @param r    Registrar, to match with schema
      * @param line payload to deserialize
-     * @return Rows, list of Row
+     * @param rows batch to append the decoded Row(s) to
      * @throws RowAccessException if we don't know how to deserialize the line
      */
-    public Rows valueToRows(final Registrar r, final Object line) throws RowAccessException
+    public void valueToRows(final Registrar r, final Object line, final RowBatch rows) throws RowAccessException
+    {
+        if (line == null) {
+            throw new RowAccessException("unable to deserialize a null value");
+        }
+
+        RowSerializer serialization = dispatchTable.get(line.getClass());
+        if (serialization == null) {
+            serialization = lookup(line);
+            dispatchTable.putIfAbsent(line.getClass(), serialization);
+        }
+
+        serialization.toRows(r, line, rows);
+    }
+
+    private RowSerializer lookup(final Object line) throws RowAccessException
     {
-        for (final RowSerializer serialization : serializations.values()) {
+        for (final RowSerializer serialization : serializations) {
             if (serialization.accept(line)) {
-                return serialization.toRows(r, line);
+                return serialization;
             }
         }
         throw new RowAccessException(String.format("unknown class type: %s", line.getClass().getName()));
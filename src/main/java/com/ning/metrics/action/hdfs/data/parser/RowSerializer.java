@@ -17,7 +17,7 @@
 package com.ning.metrics.action.hdfs.data.parser;
 
 import com.ning.metrics.action.hdfs.data.RowAccessException;
-import com.ning.metrics.action.hdfs.data.Rows;
+import com.ning.metrics.action.hdfs.data.RowBatch;
 import com.ning.metrics.action.schema.Registrar;
 
 /**
@@ -26,6 +26,14 @@ import com.ning.metrics.action.schema.Registrar;
  */
 public interface RowSerializer
 {
+    /**
+     * Whether this serializer can decode a value. The answer should only depend on the class of the value: RowParser
+     * remembers the serializer to use per class.
+     *
+     * @param o Object from Hadoop to decode
+     * @return true if this serializer can decode o
+     * @see RowParser
+     */
     public boolean accept(Object o);
 
     /**
@@ -35,11 +43,11 @@ public interface RowSerializer
      * generate the Row and decode the data as necessary.
      * If a valid registrar is specified, some more advanced decoding can be performed
      *
-     * @param r Registrar, describing the columns
-     * @param o Object from Hadoop to decode (e.g. written by the collector)
-     * @return a Row representation with associated data decoded
+     * @param r    Registrar, describing the columns
+     * @param o    Object from Hadoop to decode (e.g. written by the collector)
+     * @param rows batch to append the decoded Row(s) to
      * @throws RowAccessException Generic deserialization error
      * @see com.ning.metrics.action.hdfs.data.schema.RowSchema
      */
-    public Rows toRows(Registrar r, Object o) throws RowAccessException;
+    public void toRows(Registrar r, Object o, RowBatch rows) throws RowAccessException;
 }
@@ -18,13 +18,12 @@ package com.ning.metrics.action.hdfs.data.parser;
 
 import com.ning.metrics.action.hdfs.data.JsonNodeComparable;
 import com.ning.metrics.action.hdfs.data.RowAccessException;
-import com.ning.metrics.action.hdfs.data.RowFactory;
-import com.ning.metrics.action.hdfs.data.Rows;
-import com.ning.metrics.action.hdfs.data.schema.ColumnKey;
-import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.RowBatch;
+import com.ning.metrics.action.hdfs.data.RowSmile;
 import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.hdfs.data.schema.RowSchemaCache;
+import com.ning.metrics.action.schema.ProjectionPlan;
 import com.ning.metrics.action.schema.Registrar;
-import com.ning.metrics.goodwill.access.GoodwillSchemaField;
 import com.ning.metrics.serialization.event.SmileEnvelopeEvent;
 import com.ning.metrics.serialization.smile.SmileEnvelopeEventDeserializer;
 
@@ -36,7 +35,6 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Given a file in raw Smile format, extract SmileEnvelopeEvents
@@ -50,7 +48,7 @@ public class SmileRowSerializer implements RowSerializer
     }
 
     @Override
-    public Rows toRows(final Registrar r, final Object value) throws RowAccessException
+    public void toRows(final Registrar r, final Object value, final RowBatch rows) throws RowAccessException
     {
         final SmileEnvelopeEventDeserializer deserializer;
         try {
@@ -60,15 +58,12 @@ public class SmileRowSerializer implements RowSerializer
             throw new RowAccessException(e);
         }
 
-        final Rows rows = new Rows();
         while (deserializer.hasNextEvent()) {
             eventToRow(r, deserializer, rows);
         }
-
-        return rows;
     }
 
-    public static void eventToRow(Registrar r, SmileEnvelopeEventDeserializer deserializer, Rows rows)
+    public static void eventToRow(Registrar r, SmileEnvelopeEventDeserializer deserializer, RowBatch rows)
     {
         final SmileEnvelopeEvent event;
         try {
@@ -79,15 +74,18 @@ public class SmileRowSerializer implements RowSerializer
         }
         final JsonNode node = (JsonNode) event.getData();
 
-        final Map<Short, GoodwillSchemaField> schema = r.getSchema(event.getName());
-        final List<ColumnKey> columnKeyList = new ArrayList<ColumnKey>(node.size());
-        final List<JsonNodeComparable> data = new ArrayList<JsonNodeComparable>(node.size());
+        final ProjectionPlan plan = r.getProjectionPlan(event.getName());
+        final RowSchema rowSchema;
+        final List<JsonNodeComparable> data;
 
         // Without Goodwill integration, simply pass the raw json
-        if (schema == null) {
+        if (plan == null) {
+            final List<String> fieldNames = new ArrayList<String>(node.size());
+            data = new ArrayList<JsonNodeComparable>(node.size());
+
             final Iterator<String> nodeFieldNames = node.fieldNames();
             while (nodeFieldNames.hasNext()) {
-                columnKeyList.add(new DynamicColumnKey(nodeFieldNames.next()));
+                fieldNames.add(nodeFieldNames.next());
             }
 
             final Iterator<JsonNode> nodeElements = node.elements();
@@ -98,20 +96,24 @@ public class SmileRowSerializer implements RowSerializer
                 }
                 data.add(new JsonNodeComparable(next));
             }
+
+            rowSchema = RowSchemaCache.getSchema(event.getName(), fieldNames);
         }
         else {
             // With Goodwill, select only the fields present in the Goodwill schema, and preserve ordering
-            for (final GoodwillSchemaField schemaField : schema.values()) {
-                final String schemaFieldName = schemaField.getName();
-                columnKeyList.add(new DynamicColumnKey(schemaFieldName));
-                JsonNode delegate = node.get(schemaFieldName);
+            data = new ArrayList<JsonNodeComparable>(plan.size());
+            for (int i = 0; i < plan.size(); i++) {
+                JsonNode delegate = node.get(plan.getFieldName(i));
                 if (delegate == null) {
                     delegate = NullNode.getInstance();
                 }
                 data.add(new JsonNodeComparable(delegate));
             }
+
+            rowSchema = plan.getRowSchema();
         }
 
-        rows.add(RowFactory.getRow(new RowSchema(event.getName(), columnKeyList), data));
+        // Rows may be empty (e.g. none of the projected fields is part of the schema)
+        rows.add(new RowSmile(rowSchema, data));
     }
 }
@@ -18,19 +18,23 @@ package com.ning.metrics.action.hdfs.data.parser;
 
 import com.ning.metrics.action.hdfs.data.Row;
 import com.ning.metrics.action.hdfs.data.RowAccessException;
+import com.ning.metrics.action.hdfs.data.RowBatch;
 import com.ning.metrics.action.hdfs.data.RowFactory;
-import com.ning.metrics.action.hdfs.data.Rows;
-import com.ning.metrics.action.hdfs.data.schema.ColumnKey;
-import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
 import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.hdfs.data.schema.RowSchemaCache;
 import com.ning.metrics.action.schema.Registrar;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class StringRowSerializer implements RowSerializer
 {
+    // Shared schemas for tab separated lines, by number of columns. Wider lines go through the (bounded) RowSchemaCache
+    private static final int MAX_CACHED_COLUMNS = 256;
+    private static final AtomicReferenceArray<RowSchema> textSchemas = new AtomicReferenceArray<RowSchema>(MAX_CACHED_COLUMNS + 1);
+
     @Override
     public boolean accept(final Object o)
     {
@@ -38,20 +42,29 @@ public class StringRowSerializer implements RowSerializer
     }
 
     @Override
-    public Rows toRows(final Registrar r, final Object value) throws RowAccessException
+    public void toRows(final Registrar r, final Object value, final RowBatch rows) throws RowAccessException
     {
         final String[] data = value.toString().split("\t");
-        final List<ColumnKey> columnKeyList = new ArrayList<ColumnKey>();
+        final Row row = RowFactory.getRow(getTextSchema(data.length), Arrays.asList(data));
 
-        for (int i = 0; i < data.length; i++) {
-            columnKeyList.add(new DynamicColumnKey(String.valueOf("col-" + i)));
-        }
+        rows.add(row);
+    }
 
-        final Row row = RowFactory.getRow(new RowSchema("Text", columnKeyList), Arrays.asList(data));
+    static RowSchema getTextSchema(final int columns)
+    {
+        RowSchema schema = columns <= MAX_CACHED_COLUMNS ? textSchemas.get(columns) : null;
+        if (schema == null) {
+            final List<String> fieldNames = new ArrayList<String>(columns);
+            for (int i = 0; i < columns; i++) {
+                fieldNames.add("col-" + i);
+            }
 
-        final Rows rows = new Rows();
-        rows.add(row);
+            schema = RowSchemaCache.getSchema("Text", fieldNames);
+            if (columns <= MAX_CACHED_COLUMNS) {
+                textSchemas.compareAndSet(columns, null, schema);
+            }
+        }
 
-        return rows;
+        return schema;
     }
 }
@@ -18,20 +18,20 @@ package com.ning.metrics.action.hdfs.data.parser;
 
 import com.ning.metrics.action.hdfs.data.Row;
 import com.ning.metrics.action.hdfs.data.RowAccessException;
+import com.ning.metrics.action.hdfs.data.RowBatch;
 import com.ning.metrics.action.hdfs.data.RowFactory;
-import com.ning.metrics.action.hdfs.data.Rows;
-import com.ning.metrics.action.hdfs.data.schema.ColumnKey;
-import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.RowThrift;
 import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.hdfs.data.schema.RowSchemaCache;
+import com.ning.metrics.action.schema.ProjectionPlan;
 import com.ning.metrics.action.schema.Registrar;
-import com.ning.metrics.goodwill.access.GoodwillSchemaField;
 import com.ning.metrics.serialization.thrift.ThriftEnvelope;
 import com.ning.metrics.serialization.thrift.ThriftField;
 import com.ning.metrics.serialization.thrift.item.DataItem;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 public class ThriftEnvelopeRowSerializer implements RowSerializer
 {
@@ -42,38 +42,66 @@ public class ThriftEnvelopeRowSerializer implements RowSerializer
     }
 
     @Override
-    public Rows toRows(Registrar r, Object value) throws RowAccessException
+    public void toRows(Registrar r, Object value, RowBatch rows) throws RowAccessException
     {
         ThriftEnvelope envelope = (ThriftEnvelope) value;
 
         List<ThriftField> payload = envelope.getPayload();
-        List<DataItem> data = new ArrayList<DataItem>(payload.size());
-        List<ColumnKey> columnKeyList = new ArrayList<ColumnKey>(payload.size());
+        ProjectionPlan plan = r.getProjectionPlan(envelope.getTypeName());
 
+        if (plan != null && plan.isProjection()) {
+            // Projected columns may be missing: don't let RowFactory guess the row type from the first one
+            rows.add(new RowThrift(plan.getRowSchema(), project(plan, payload)));
+            return;
+        }
 
-        Map<Short, GoodwillSchemaField> schema = r.getSchema(envelope.getTypeName());
+        List<DataItem> data = new ArrayList<DataItem>(payload.size());
 
+        // Common case: the payload has exactly the fields of the schema, in order
+        boolean matchesPlan = plan != null && plan.size() == payload.size();
+        int i = 0;
         for (ThriftField field : payload) {
-            GoodwillSchemaField schemaField = null;
-            if (schema != null) {
-                schemaField = schema.get(field.getId());
-            }
-
-            if (schemaField == null) {
-                columnKeyList.add(new DynamicColumnKey(String.format("%d", field.getId())));
-            }
-            else {
-                columnKeyList.add(new DynamicColumnKey(schemaField.getName()));
+            matchesPlan = matchesPlan && plan.getPosition(field.getId()) == i;
+            data.add(field.getDataItem());
+            i++;
+        }
 
+        RowSchema rowSchema;
+        if (matchesPlan) {
+            rowSchema = plan.getRowSchema();
+        }
+        else {
+            List<String> fieldNames = new ArrayList<String>(payload.size());
+            for (ThriftField field : payload) {
+                int position = plan == null ? -1 : plan.getPosition(field.getId());
+                if (position == -1) {
+                    fieldNames.add(RowSchemaCache.getPositionalName(field.getId()));
+                }
+                else {
+                    fieldNames.add(plan.getFieldName(position));
+                }
             }
-            data.add(field.getDataItem());
+            rowSchema = RowSchemaCache.getSchema(envelope.getTypeName(), fieldNames);
         }
 
-        Row row = RowFactory.getRow(new RowSchema(envelope.getTypeName(), columnKeyList), data);
+        Row row = RowFactory.getRow(rowSchema, data);
 
-        Rows rows = new Rows();
         rows.add(row);
+    }
+
+    /**
+     * Copy only the projected fields of a payload, in the order of the plan
+     */
+    private List<DataItem> project(ProjectionPlan plan, List<ThriftField> payload)
+    {
+        List<DataItem> data = new ArrayList<DataItem>(Collections.<DataItem>nCopies(plan.size(), null));
+        for (ThriftField field : payload) {
+            int position = plan.getPosition(field.getId());
+            if (position != -1) {
+                data.set(position, field.getDataItem());
+            }
+        }
 
-        return rows;
+        return data;
     }
 }
@@ -17,13 +17,12 @@
 package com.ning.metrics.action.hdfs.data.parser;
 
 import com.ning.metrics.action.hdfs.data.RowAccessException;
-import com.ning.metrics.action.hdfs.data.RowFactory;
-import com.ning.metrics.action.hdfs.data.Rows;
-import com.ning.metrics.action.hdfs.data.schema.ColumnKey;
-import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.RowBatch;
+import com.ning.metrics.action.hdfs.data.RowThrift;
 import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.hdfs.data.schema.RowSchemaCache;
+import com.ning.metrics.action.schema.ProjectionPlan;
 import com.ning.metrics.action.schema.Registrar;
-import com.ning.metrics.goodwill.access.GoodwillSchemaField;
 import com.ning.metrics.serialization.event.ThriftEnvelopeEvent;
 import com.ning.metrics.serialization.thrift.ThriftEnvelope;
 import com.ning.metrics.serialization.thrift.ThriftEnvelopeEventDeserializer;
@@ -35,7 +34,6 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Given a file in raw Thrift format, extract ThriftEnvelopeEvents
@@ -49,7 +47,7 @@ public class ThriftRowSerializer implements RowSerializer
     }
 
     @Override
-    public Rows toRows(final Registrar r, final Object value) throws RowAccessException
+    public void toRows(final Registrar r, final Object value, final RowBatch rows) throws RowAccessException
     {
         final ThriftEnvelopeEventDeserializer deserializer;
         try {
@@ -59,15 +57,12 @@ public class ThriftRowSerializer implements RowSerializer
             throw new RowAccessException(e);
         }
 
-        final Rows rows = new Rows();
         while (deserializer.hasNextEvent()) {
             eventToRow(r, deserializer, rows);
         }
-
-        return rows;
     }
 
-    public static void eventToRow(Registrar r, ThriftEnvelopeEventDeserializer deserializer, Rows rows)
+    public static void eventToRow(Registrar r, ThriftEnvelopeEventDeserializer deserializer, RowBatch rows)
     {
         final ThriftEnvelopeEvent event;
         try {
@@ -79,34 +74,55 @@ public class ThriftRowSerializer implements RowSerializer
         final ThriftEnvelope envelope = (ThriftEnvelope) event.getData();
         final List<ThriftField> fields = envelope.getPayload();
 
-        final Map<Short, GoodwillSchemaField> schema = r.getSchema(event.getName());
-        final List<ColumnKey> columnKeyList = new ArrayList<ColumnKey>(envelope.getPayload().size());
-        final List<DataItem> data = new ArrayList<DataItem>(envelope.getPayload().size());
+        final ProjectionPlan plan = r.getProjectionPlan(event.getName());
+        final RowSchema rowSchema;
+        final List<DataItem> data;
 
         // Without Goodwill integration, simply pass the values
-        if (schema == null) {
+        if (plan == null) {
+            final List<String> fieldNames = new ArrayList<String>(fields.size());
+            data = new ArrayList<DataItem>(fields.size());
+
             int i = 1;
             for (final ThriftField field : fields) {
-                columnKeyList.add(new DynamicColumnKey(String.valueOf(i)));
+                fieldNames.add(RowSchemaCache.getPositionalName(i));
                 data.add(field.getDataItem());
                 i++;
             }
+
+            rowSchema = RowSchemaCache.getSchema(event.getName(), fieldNames);
         }
         else {
             // With Goodwill, select only the fields present in the Goodwill schema, and preserve ordering
-            final Iterator<ThriftField> iterator = fields.iterator();
-            for (final GoodwillSchemaField schemaField : schema.values()) {
-                final String schemaFieldName = schemaField.getName();
-                columnKeyList.add(new DynamicColumnKey(schemaFieldName));
-                if (iterator.hasNext()) {
-                    data.add(iterator.next().getDataItem());
+            data = new ArrayList<DataItem>(plan.size());
+            if (plan.isProjection()) {
+                // Only copy the projected fields
+                for (int i = 0; i < plan.size(); i++) {
+                    final int sourcePosition = plan.getSourcePosition(i);
+                    if (sourcePosition >= 0 && sourcePosition < fields.size()) {
+                        data.add(fields.get(sourcePosition).getDataItem());
+                    }
+                    else {
+                        data.add(null);
+                    }
                 }
-                else {
-                    data.add(null);
+            }
+            else {
+                final Iterator<ThriftField> iterator = fields.iterator();
+                for (int i = 0; i < plan.size(); i++) {
+                    if (iterator.hasNext()) {
+                        data.add(iterator.next().getDataItem());
+                    }
+                    else {
+                        data.add(null);
+                    }
                 }
             }
+
+            rowSchema = plan.getRowSchema();
         }
 
-        rows.add(RowFactory.getRow(new RowSchema(event.getName(), columnKeyList), data));
+        // Columns may be missing (e.g. projected ones): don't let RowFactory guess the row type from the first one
+        rows.add(new RowThrift(rowSchema, data));
     }
 }
@@ -16,12 +16,13 @@
 
 package com.ning.metrics.action.hdfs.data.parser;
 
+import com.ning.metrics.action.hdfs.data.ByteSlice;
 import com.ning.metrics.action.hdfs.data.Row;
 import com.ning.metrics.action.hdfs.data.RowAccessException;
+import com.ning.metrics.action.hdfs.data.RowBatch;
+import com.ning.metrics.action.hdfs.data.RowBytes;
 import com.ning.metrics.action.hdfs.data.RowFactory;
 import com.ning.metrics.action.hdfs.data.RowThrift;
-import com.ning.metrics.action.hdfs.data.Rows;
-import com.ning.metrics.action.hdfs.data.schema.ColumnKey;
 import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
 import com.ning.metrics.action.hdfs.data.schema.RowSchema;
 import com.ning.metrics.action.schema.Registrar;
@@ -29,13 +30,12 @@ import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 
-import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 public class WritableRowSerializer implements RowSerializer
 {
+    private static final RowSchema BYTES_WRITABLE_SCHEMA = new RowSchema("BytesWritable", new DynamicColumnKey("col-1")).freeze();
+
     @Override
     public boolean accept(Object o)
     {
@@ -43,27 +43,18 @@ public class WritableRowSerializer implements RowSerializer
     }
 
     @Override
-    public Rows toRows(Registrar r, Object value) throws RowAccessException
+    public void toRows(Registrar r, Object value, RowBatch rows) throws RowAccessException
     {
         Row row;
 
         if (value instanceof Text) {
             String[] data = value.toString().split("\t");
-            List<ColumnKey> columnKeyList = new ArrayList<ColumnKey>();
-
-            for (int i = 0; i < data.length; i++) {
-                columnKeyList.add(new DynamicColumnKey(String.valueOf("col-" + i)));
-            }
-
-            row = RowFactory.getRow(new RowSchema("Text", columnKeyList), Arrays.asList(data));
+            row = RowFactory.getRow(StringRowSerializer.getTextSchema(data.length), Arrays.asList(data));
         }
         else if (value instanceof BytesWritable) {
-            byte[] data = ((BytesWritable) value).getBytes();
-
-            ArrayList<String> listData = new ArrayList<String>();
-            listData.add(new String(data, Charset.forName("UTF-8")));
-
-            row = RowFactory.getRow(new RowSchema("BytesWritable", new DynamicColumnKey(String.valueOf("col-1"))), listData);
+            // The row points to the buffer of the writable, which therefore must not be reused while the row is in use
+            BytesWritable bytesWritable = (BytesWritable) value;
+            row = new RowBytes(BYTES_WRITABLE_SCHEMA, new ByteSlice(bytesWritable.getBytes(), 0, bytesWritable.getLength()));
         }
         else if (value instanceof RowThrift) {
             row = (RowThrift) value;
@@ -72,9 +63,6 @@ public class WritableRowSerializer implements RowSerializer
             throw new RowAccessException(String.format("Writable [%s] is not a known row type", value == null ? null : value.getClass()));
         }
 
-        Rows rows = new Rows();
         rows.add(row);
-
-        return rows;
     }
 }
@@ -45,6 +45,12 @@ public class RowSchema implements WritableComparable
     private final Map<String, Integer> columnMap = new HashMap<String, Integer>();
     private final Map<String, Integer> newColumnMap = new HashMap<String, Integer>();
     private final String name;
+    // Column names by position (base columns first, then added ones), null for unmapped positions
+    private String[] fieldNames = new String[0];
+    // Frozen schemas are shared between rows and can't be modified
+    private boolean frozen = false;
+    // Cached once frozen
+    private int hashCode;
 
     public RowSchema(String name, List<ColumnKey> keyList)
     {
@@ -55,6 +61,7 @@ public class RowSchema implements WritableComparable
         }
 
         this.name = name;
+        indexFieldNames();
     }
 
     public RowSchema(String name, ColumnKey... keys)
@@ -72,6 +79,44 @@ public class RowSchema implements WritableComparable
         this.name = name;
         //intentionally does not copy newColumnMap
         this.columnMap.putAll(schema.columnMap);
+        indexFieldNames();
+    }
+
+    /**
+     * Modifiable copy of a schema, including its added columns
+     *
+     * @param schema schema to copy
+     */
+    public RowSchema(RowSchema schema)
+    {
+        this.name = schema.name;
+        this.columnMap.putAll(schema.columnMap);
+        this.newColumnMap.putAll(schema.newColumnMap);
+        indexFieldNames();
+    }
+
+    /**
+     * Prevent further modifications, so that the schema can be shared between rows
+     *
+     * @return this schema
+     */
+    public RowSchema freeze()
+    {
+        hashCode = computeHashCode();
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    private void checkNotFrozen()
+    {
+        if (frozen) {
+            throw new IllegalStateException("schema " + name + " is shared and can't be modified");
+        }
     }
 
     public int getColNum(ColumnKey key) throws RowAccessException
@@ -96,9 +141,11 @@ public class RowSchema implements WritableComparable
 
     public void addCol(ColumnKey key, int pos)
     {
+        checkNotFrozen();
         if (columnMap.containsKey(key.getKeyName()) || newColumnMap.put(key.getKeyName(), pos) != null) {
             throw new IllegalArgumentException("cannot add duplicate key: " + key);
         }
+        indexFieldNames();
     }
 
     public int getNumBaseCols()
@@ -124,8 +171,10 @@ public class RowSchema implements WritableComparable
 
     public void readFields(DataInput in) throws IOException
     {
+        checkNotFrozen();
         readMap(in, columnMap);
         readMap(in, newColumnMap);
+        indexFieldNames();
     }
 
     private void readMap(DataInput in, Map<String, Integer> theMap) throws IOException
@@ -157,6 +206,16 @@ public class RowSchema implements WritableComparable
     }
 
     public int hashCode()
+    {
+        if (frozen) {
+            return hashCode;
+        }
+        else {
+            return computeHashCode();
+        }
+    }
+
+    private int computeHashCode()
     {
         return columnMap.hashCode() ^ newColumnMap.hashCode();
     }
@@ -175,11 +234,36 @@ public class RowSchema implements WritableComparable
 
     public String getFieldNameByPosition(int i)
     {
-        for (String field : columnMap.keySet()) {
-            if (columnMap.get(field) == i) {
-                return field;
-            }
+        if (i >= 0 && i < fieldNames.length && fieldNames[i] != null) {
+            return fieldNames[i];
         }
         return String.format("Field_%d", i);
     }
+
+    private void indexFieldNames()
+    {
+        int size = 0;
+        for (Integer pos : columnMap.values()) {
+            size = Math.max(size, pos + 1);
+        }
+        for (Integer pos : newColumnMap.values()) {
+            size = Math.max(size, pos + 1);
+        }
+
+        String[] names = new String[size];
+        // Base columns win over added ones at the same position
+        indexFieldNames(names, newColumnMap);
+        indexFieldNames(names, columnMap);
+
+        fieldNames = names;
+    }
+
+    private void indexFieldNames(String[] names, Map<String, Integer> map)
+    {
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            if (entry.getValue() >= 0) {
+                names[entry.getValue()] = entry.getKey();
+            }
+        }
+    }
 }
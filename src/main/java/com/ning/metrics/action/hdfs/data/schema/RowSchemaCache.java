@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.schema;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Intern RowSchemas: rows of the same event type, with the same fields, share a single frozen schema.
+ *
+ * @see RowSchema#freeze()
+ */
+public class RowSchemaCache
+{
+    // Bound the number of layouts, for events with arbitrary fields
+    private static final int MAX_SCHEMAS = 10000;
+    private static final int MAX_POSITIONAL_NAMES = 1024;
+
+    private static final Cache<Key, RowSchema> schemas = CacheBuilder.newBuilder()
+        .maximumSize(MAX_SCHEMAS)
+        .build();
+
+    private static final String[] positionalNames = new String[MAX_POSITIONAL_NAMES];
+
+    static {
+        for (int i = 0; i < MAX_POSITIONAL_NAMES; i++) {
+            positionalNames[i] = String.valueOf(i);
+        }
+    }
+
+    /**
+     * Get the shared schema for an event layout
+     *
+     * @param name       event name
+     * @param fieldNames ordered field names, not modified afterwards
+     * @return the frozen schema
+     */
+    public static RowSchema getSchema(final String name, final List<String> fieldNames)
+    {
+        final Key key = new Key(name, fieldNames);
+
+        RowSchema schema = schemas.getIfPresent(key);
+        if (schema == null) {
+            final List<ColumnKey> columnKeyList = new ArrayList<ColumnKey>(fieldNames.size());
+            for (final String fieldName : fieldNames) {
+                columnKeyList.add(new DynamicColumnKey(fieldName));
+            }
+
+            // Racing threads may build the same schema twice, which is harmless
+            schema = new RowSchema(name, columnKeyList).freeze();
+            schemas.put(key, schema);
+        }
+
+        return schema;
+    }
+
+    /**
+     * Name of a field identified by its position, without allocating a new String for common positions
+     *
+     * @param i position of the field
+     * @return the position, as a String
+     */
+    public static String getPositionalName(final int i)
+    {
+        if (i >= 0 && i < MAX_POSITIONAL_NAMES) {
+            return positionalNames[i];
+        }
+        else {
+            return String.valueOf(i);
+        }
+    }
+
+    private static final class Key
+    {
+        private final String name;
+        private final List<String> fieldNames;
+        private final int hashCode;
+
+        private Key(final String name, final List<String> fieldNames)
+        {
+            this.name = name;
+            this.fieldNames = fieldNames;
+            this.hashCode = 31 * (name == null ? 0 : name.hashCode()) + fieldNames.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+
+            return hashCode == key.hashCode &&
+                (name == null ? key.name == null : name.equals(key.name)) &&
+                fieldNames.equals(key.fieldNames);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.weakref.jmx.Managed;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of namenode lookups.
+ * <p/>
+ * Directory listings are evicted after a TTL or when the cache is full. Before being served, a listing older than the
+ * revalidation interval is checked against the modification time of the directory (one cheap getFileStatus call),
+ * which changes whenever a child is added, removed or renamed.
+ */
+@Singleton
+public class FileStatusCache
+{
+    private final Cache<Path, CachedListing> listings;
+    private final Cache<Path, FileStatus> fileStatuses;
+    private final boolean enabled;
+    private final long revalidateMillis;
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong revalidations = new AtomicLong(0);
+    private final AtomicLong invalidations = new AtomicLong(0);
+
+    @Inject
+    public FileStatusCache(final ActionCoreConfig config)
+    {
+        this(config.getNamenodeCacheMaxStatuses(), config.getNamenodeCacheTTL(), config.getNamenodeCacheRevalidate());
+    }
+
+    /**
+     * @param maxStatuses      maximum number of FileStatus to keep in memory, 0 to disable the cache
+     * @param ttlMillis        maximum time a listing stays in the cache
+     * @param revalidateMillis time after which the directory mtime is checked before serving a listing
+     */
+    public FileStatusCache(final long maxStatuses, final long ttlMillis, final long revalidateMillis)
+    {
+        this.enabled = maxStatuses > 0;
+        this.revalidateMillis = revalidateMillis;
+
+        listings = CacheBuilder.newBuilder()
+            .maximumWeight(maxStatuses)
+            .weigher(new Weigher<Path, CachedListing>()
+            {
+                @Override
+                public int weigh(final Path path, final CachedListing listing)
+                {
+                    return 1 + listing.fileStatuses.length;
+                }
+            })
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .build();
+        // No mtime to compare against for single files: simply keep them for the revalidation interval
+        fileStatuses = CacheBuilder.newBuilder()
+            .maximumSize(maxStatuses)
+            .expireAfterWrite(revalidateMillis, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * Cached version of {@link FileSystem#getFileStatus(org.apache.hadoop.fs.Path)}
+     *
+     * @param fs   FileSystem to query
+     * @param path path to lookup
+     * @return the FileStatus of path
+     * @throws IOException namenode error, FileNotFoundException if the path doesn't exist
+     */
+    public FileStatus getFileStatus(final FileSystem fs, final Path path) throws IOException
+    {
+        if (!enabled) {
+            return fs.getFileStatus(path);
+        }
+
+        final Path key = fs.makeQualified(path);
+        FileStatus fileStatus = fileStatuses.getIfPresent(key);
+        if (fileStatus != null) {
+            hits.incrementAndGet();
+            return fileStatus;
+        }
+
+        misses.incrementAndGet();
+        fileStatus = fs.getFileStatus(key);
+        fileStatuses.put(key, fileStatus);
+
+        return fileStatus;
+    }
+
+    /**
+     * Cached version of {@link FileSystem#listStatus(org.apache.hadoop.fs.Path)}
+     *
+     * @param fs   FileSystem to query
+     * @param path directory to list
+     * @return the content of the directory, null if it doesn't exist
+     * @throws IOException namenode error
+     */
+    public FileStatus[] listStatus(final FileSystem fs, final Path path) throws IOException
+    {
+        return listStatus(fs, path, null);
+    }
+
+    /**
+     * Cached version of {@link FileSystem#listStatus(org.apache.hadoop.fs.Path)}, for a directory we already have the
+     * FileStatus of (e.g. from the listing of its parent). This saves a namenode call on cache misses.
+     *
+     * @param fs        FileSystem to query
+     * @param directory directory to list
+     * @return the content of the directory, null if it doesn't exist
+     * @throws IOException namenode error
+     */
+    public FileStatus[] listStatus(final FileSystem fs, final FileStatus directory) throws IOException
+    {
+        return listStatus(fs, directory.getPath(), directory);
+    }
+
+    private FileStatus[] listStatus(final FileSystem fs, final Path path, FileStatus directory) throws IOException
+    {
+        if (!enabled) {
+            return fs.listStatus(path);
+        }
+
+        final Path key = fs.makeQualified(path);
+        final long now = System.currentTimeMillis();
+
+        final CachedListing cachedListing = listings.getIfPresent(key);
+        if (cachedListing != null) {
+            if (now - cachedListing.validatedAt < revalidateMillis) {
+                hits.incrementAndGet();
+                return cachedListing.fileStatuses;
+            }
+
+            // Always go to the namenode here, the FileStatus we've been given may come from a stale listing
+            directory = getFreshFileStatus(fs, key);
+            if (directory != null && directory.getModificationTime() == cachedListing.modificationTime) {
+                revalidations.incrementAndGet();
+                cachedListing.validatedAt = now;
+                return cachedListing.fileStatuses;
+            }
+
+            invalidations.incrementAndGet();
+            listings.invalidate(key);
+        }
+
+        misses.incrementAndGet();
+        // Get the mtime before the listing: if the directory changes in between, the next revalidation will catch it
+        if (directory == null) {
+            directory = getFreshFileStatus(fs, key);
+        }
+        if (directory == null) {
+            return null;
+        }
+
+        final FileStatus[] fileStatuses = fs.listStatus(key);
+        if (fileStatuses != null) {
+            listings.put(key, new CachedListing(fileStatuses, directory.getModificationTime(), now));
+        }
+
+        return fileStatuses;
+    }
+
+    private FileStatus getFreshFileStatus(final FileSystem fs, final Path path) throws IOException
+    {
+        try {
+            final FileStatus fileStatus = fs.getFileStatus(path);
+            fileStatuses.put(path, fileStatus);
+            return fileStatus;
+        }
+        catch (FileNotFoundException e) {
+            fileStatuses.invalidate(path);
+            return null;
+        }
+    }
+
+    /**
+     * Drop what is cached about a path which has been written or deleted: its FileStatus, its listing and the ones of
+     * its subdirectories, and the listing of its parent.
+     *
+     * @param fs   FileSystem the path belongs to
+     * @param path file or directory which changed
+     */
+    public void invalidate(final FileSystem fs, final Path path)
+    {
+        final Path key = fs.makeQualified(path);
+        final String prefix = key.toString() + Path.SEPARATOR;
+
+        for (final Path cachedPath : listings.asMap().keySet()) {
+            if (cachedPath.equals(key) || cachedPath.toString().startsWith(prefix)) {
+                listings.invalidate(cachedPath);
+            }
+        }
+        for (final Path cachedPath : fileStatuses.asMap().keySet()) {
+            if (cachedPath.equals(key) || cachedPath.toString().startsWith(prefix)) {
+                fileStatuses.invalidate(cachedPath);
+            }
+        }
+
+        final Path parent = key.getParent();
+        if (parent != null) {
+            listings.invalidate(parent);
+            fileStatuses.invalidate(parent);
+        }
+    }
+
+    @Managed(description = "Number of namenode lookups served from the cache")
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    @Managed(description = "Number of namenode lookups not found in the cache")
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    @Managed(description = "Number of cached listings served after checking the directory mtime")
+    public long getRevalidations()
+    {
+        return revalidations.get();
+    }
+
+    @Managed(description = "Number of cached listings discarded because the directory changed")
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    @Managed(description = "Number of cached directory listings")
+    public long getListingsSize()
+    {
+        return listings.size();
+    }
+
+    @Managed(description = "Drop all cached entries")
+    public void invalidateAll()
+    {
+        listings.invalidateAll();
+        fileStatuses.invalidateAll();
+    }
+
+    private static final class CachedListing
+    {
+        private final FileStatus[] fileStatuses;
+        private final long modificationTime;
+        private volatile long validatedAt;
+
+        private CachedListing(final FileStatus[] fileStatuses, final long modificationTime, final long validatedAt)
+        {
+            this.fileStatuses = fileStatuses;
+            this.modificationTime = modificationTime;
+            this.validatedAt = validatedAt;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Recursive directory crawler.
+ * <p/>
+ * Each directory costs one namenode round trip: sibling directories are listed ahead of time on a shared, bounded,
+ * executor, while the consumer walks the tree in the same order as a sequential depth-first walk (children of a
+ * directory first, then the directory itself).
+ * <p/>
+ * Entries are produced lazily: only the listings of the directories on the current path, plus a window of prefetched
+ * siblings, are kept in memory, regardless of the size of the tree.
+ */
+@Singleton
+public class HdfsCrawler
+{
+    private final FileStatusCache fileStatusCache;
+    private final ExecutorService executor;
+    private final int requestConcurrency;
+
+    @Inject
+    public HdfsCrawler(final ActionCoreConfig config, final FileStatusCache fileStatusCache)
+    {
+        this(fileStatusCache,
+            Executors.newFixedThreadPool(config.getCrawlerThreads(), new ThreadFactoryBuilder().setNameFormat("hdfs-crawler-%d").setDaemon(true).build()),
+            config.getCrawlerRequestConcurrency());
+    }
+
+    public HdfsCrawler(final FileStatusCache fileStatusCache, final ExecutorService executor, final int requestConcurrency)
+    {
+        this.fileStatusCache = fileStatusCache;
+        this.executor = executor;
+        this.requestConcurrency = requestConcurrency;
+    }
+
+    /**
+     * Find all entries under a directory, recursively.
+     *
+     * @param fs                             FileSystem to crawl
+     * @param path                           root of the crawl
+     * @param raw                            whether to lookup the schema when reading the entries content
+     * @param rowFileContentsIteratorFactory factory for the entries content
+     * @return all entries under path, in depth-first order
+     * @throws IOException HDFS crawling error
+     */
+    public ImmutableList<HdfsEntry> crawl(final FileSystem fs, final Path path, final boolean raw, final RowFileContentsIteratorFactory rowFileContentsIteratorFactory) throws IOException
+    {
+        try {
+            return ImmutableList.copyOf(stream(fs, path, raw, rowFileContentsIteratorFactory, true));
+        }
+        catch (HdfsCrawlerException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Lazily iterate over the entries under a directory.
+     * <p/>
+     * The namenode is only contacted for the root directory when calling this method. Subsequent errors are
+     * reported by the iterator as {@link HdfsCrawlerException}.
+     *
+     * @param fs                             FileSystem to crawl
+     * @param path                           root of the crawl
+     * @param raw                            whether to lookup the schema when reading the entries content
+     * @param rowFileContentsIteratorFactory factory for the entries content
+     * @param recursive                      whether to descend into subdirectories
+     * @return iterator over the entries under path, in depth-first order
+     * @throws IOException HDFS crawling error
+     */
+    public Iterator<HdfsEntry> stream(final FileSystem fs, final Path path, final boolean raw, final RowFileContentsIteratorFactory rowFileContentsIteratorFactory, final boolean recursive) throws IOException
+    {
+        return new HdfsEntryIterator(fs, fileStatusCache.listStatus(fs, path), raw, rowFileContentsIteratorFactory, recursive);
+    }
+
+    /**
+     * Lazily iterate over the entries under a file or directory we already have the FileStatus of.
+     * <p/>
+     * A file is its own single entry and doesn't require any call to the namenode.
+     *
+     * @param fs                             FileSystem to crawl
+     * @param status                         root of the crawl
+     * @param raw                            whether to lookup the schema when reading the entries content
+     * @param rowFileContentsIteratorFactory factory for the entries content
+     * @param recursive                      whether to descend into subdirectories
+     * @return iterator over the entries under status, in depth-first order
+     * @throws IOException HDFS crawling error
+     * @see #stream(org.apache.hadoop.fs.FileSystem, org.apache.hadoop.fs.Path, boolean, com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory, boolean)
+     */
+    public Iterator<HdfsEntry> stream(final FileSystem fs, final FileStatus status, final boolean raw, final RowFileContentsIteratorFactory rowFileContentsIteratorFactory, final boolean recursive) throws IOException
+    {
+        final FileStatus[] fileStatuses;
+        if (status.isDir()) {
+            fileStatuses = fileStatusCache.listStatus(fs, status);
+        }
+        else {
+            fileStatuses = new FileStatus[]{status};
+        }
+
+        return new HdfsEntryIterator(fs, fileStatuses, raw, rowFileContentsIteratorFactory, recursive);
+    }
+
+    private final class HdfsEntryIterator extends AbstractIterator<HdfsEntry>
+    {
+        private final Deque<Frame> frames = new ArrayDeque<Frame>();
+        // Bound the number of in-flight namenode calls for this request
+        private final Semaphore permits = new Semaphore(requestConcurrency);
+        private final FileSystem fs;
+        private final boolean raw;
+        private final RowFileContentsIteratorFactory rowFileContentsIteratorFactory;
+        private final boolean recursive;
+
+        private HdfsEntryIterator(final FileSystem fs, final FileStatus[] fileStatuses, final boolean raw, final RowFileContentsIteratorFactory rowFileContentsIteratorFactory, final boolean recursive)
+        {
+            this.fs = fs;
+            this.raw = raw;
+            this.rowFileContentsIteratorFactory = rowFileContentsIteratorFactory;
+            this.recursive = recursive;
+
+            frames.push(new Frame(fileStatuses, null));
+        }
+
+        @Override
+        protected HdfsEntry computeNext()
+        {
+            try {
+                while (!frames.isEmpty()) {
+                    final Frame frame = frames.peek();
+
+                    if (frame.next < frame.fileStatuses.length) {
+                        final int i = frame.next++;
+                        final FileStatus s = frame.fileStatuses[i];
+
+                        if (s.isDir() && recursive) {
+                            // The directory itself is returned once all its children have been
+                            frames.push(new Frame(frame.take(i), s));
+                        }
+                        else {
+                            return new HdfsEntry(fs, s, raw, rowFileContentsIteratorFactory);
+                        }
+                    }
+                    else {
+                        frames.pop();
+                        if (frame.directory != null) {
+                            return new HdfsEntry(fs, frame.directory, raw, rowFileContentsIteratorFactory);
+                        }
+                    }
+                }
+
+                return endOfData();
+            }
+            catch (IOException e) {
+                for (final Frame frame : frames) {
+                    frame.cancel();
+                }
+                frames.clear();
+                throw new HdfsCrawlerException(e);
+            }
+        }
+
+        /**
+         * Listing of a directory, with the listings of its subdirectories fetched ahead of time
+         */
+        private final class Frame
+        {
+            private final FileStatus[] fileStatuses;
+            private final FileStatus directory;
+            private final Future<FileStatus[]>[] listings;
+            private int next = 0;
+            private int scheduled = 0;
+
+            @SuppressWarnings("unchecked")
+            private Frame(final FileStatus[] fileStatuses, final FileStatus directory)
+            {
+                // listStatus returns null for non-existent paths
+                this.fileStatuses = fileStatuses == null ? new FileStatus[0] : fileStatuses;
+                this.directory = directory;
+                this.listings = new Future[this.fileStatuses.length];
+            }
+
+            /**
+             * Get the listing of the i-th entry (a directory) and schedule the next ones
+             *
+             * @param i position of the directory in this listing
+             * @return the listing of the directory
+             * @throws IOException HDFS crawling error
+             */
+            private FileStatus[] take(final int i) throws IOException
+            {
+                while (scheduled < fileStatuses.length && scheduled <= i + requestConcurrency) {
+                    if (fileStatuses[scheduled].isDir()) {
+                        listings[scheduled] = listStatus(fs, fileStatuses[scheduled], permits);
+                    }
+                    scheduled++;
+                }
+
+                final Future<FileStatus[]> listing = listings[i];
+                listings[i] = null;
+
+                return await(listing);
+            }
+
+            private void cancel()
+            {
+                for (final Future<FileStatus[]> listing : listings) {
+                    if (listing != null) {
+                        listing.cancel(true);
+                    }
+                }
+            }
+        }
+    }
+
+    private Future<FileStatus[]> listStatus(final FileSystem fs, final FileStatus directory, final Semaphore permits) throws IOException
+    {
+        final Path path = directory.getPath();
+
+        try {
+            permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while crawling " + path);
+        }
+
+        try {
+            return executor.submit(new Callable<FileStatus[]>()
+            {
+                @Override
+                public FileStatus[] call() throws Exception
+                {
+                    try {
+                        return fileStatusCache.listStatus(fs, directory);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            permits.release();
+            throw new IOException("Unable to crawl " + path, e);
+        }
+    }
+
+    private FileStatus[] await(final Future<FileStatus[]> listing) throws IOException
+    {
+        try {
+            return listing.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while crawling");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import java.io.IOException;
+
+/**
+ * Unchecked wrapper for HDFS errors happening while lazily iterating over a listing.
+ */
+public class HdfsCrawlerException extends RuntimeException
+{
+    public HdfsCrawlerException(IOException cause)
+    {
+        super(cause);
+    }
+
+    @Override
+    public IOException getCause()
+    {
+        return (IOException) super.getCause();
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.ning.metrics.action.hdfs.reader;
 
+import com.ning.metrics.action.hdfs.data.CloseableIterator;
 import com.ning.metrics.action.hdfs.data.Row;
 import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
 
@@ -37,6 +38,7 @@ import java.util.Iterator;
  */
 public class HdfsEntry
 {
+    private final FileStatus status;
     private final Path path;
     private final long blockSize;
     private final long size;
@@ -66,6 +68,7 @@ public class HdfsEntry
                      @JsonProperty(JSON_ENTRY_IS_DIR) boolean isDirectory)
     {
         this.fs = null;
+        this.status = null;
         this.path = new Path(path);
         this.modificationDate = new DateTime(mtime);
         this.blockSize = -1;
@@ -81,6 +84,7 @@ public class HdfsEntry
     public HdfsEntry(FileSystem fs, FileStatus status, boolean raw, RowFileContentsIteratorFactory rowFileContentsIteratorFactory) throws IOException
     {
         this.fs = fs;
+        this.status = status;
         this.path = status.getPath();
         this.modificationDate = new DateTime(status.getModificationTime());
 
@@ -153,20 +157,60 @@ public class HdfsEntry
         return directory;
     }
 
-    public Iterator<Row> getContent() throws IOException
+    /**
+     * Open the content of this file
+     *
+     * @return iterator over the rows of this file, to close if not consumed until the end
+     * @throws IOException generic I/O Exception
+     */
+    public CloseableIterator<Row> getContent() throws IOException
     {
-        return rowFileContentsIteratorFactory.build(fs, path, raw);
+        return rowFileContentsIteratorFactory.build(fs, status, raw);
+    }
+
+    /**
+     * Get the number of rows in this file, if it has been read before
+     *
+     * @return the number of rows in this file, -1 if unknown
+     */
+    public long getRowCount()
+    {
+        if (directory) {
+            return 0;
+        }
+        else {
+            return rowFileContentsIteratorFactory.getRowCount(status, raw);
+        }
     }
 
     public void toJson(final JsonGenerator generator) throws IOException
     {
-        Iterator<Row> content = null;
+        CloseableIterator<Row> content = null;
         try {
             content = getContent();
         }
         catch (IOException ignored) {
         }
 
+        try {
+            toJson(generator, content);
+        }
+        finally {
+            if (content != null) {
+                content.close();
+            }
+        }
+    }
+
+    /**
+     * Serialize this entry, with some already decoded content
+     *
+     * @param generator JsonGenerator to write to
+     * @param content   content of this entry, may be null
+     * @throws IOException generic I/O Exception
+     */
+    public void toJson(final JsonGenerator generator, final Iterator<Row> content) throws IOException
+    {
         generator.writeStartObject();
 
         generator.writeObjectField(JSON_ENTRY_PATH, getPath());
@@ -174,8 +218,6 @@ public class HdfsEntry
         generator.writeObjectField(JSON_ENTRY_SIZE, getSize());
         generator.writeObjectField(JSON_ENTRY_REPLICATION, getReplication());
         generator.writeObjectField(JSON_ENTRY_IS_DIR, isDirectory());
-        // Important: need to flush before appending pre-serialized events
-        generator.flush();
 
         generator.writeArrayFieldStart(JSON_ENTRY_CONTENT);
         if (content != null) {
@@ -185,8 +227,8 @@ public class HdfsEntry
         }
         generator.writeEndArray();
 
+        // No flush: the generator writes its buffer out when full
         generator.writeEndObject();
-        generator.flush();
     }
 
     @Override
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.hdfs.data.Row;
+
+import java.util.Iterator;
+
+/**
+ * An entry of a listing, with its decoded content.
+ *
+ * @see HdfsListing#streamContents(boolean)
+ */
+public class HdfsEntryContent
+{
+    private final HdfsEntry entry;
+    private final Iterator<Row> content;
+
+    public HdfsEntryContent(final HdfsEntry entry, final Iterator<Row> content)
+    {
+        this.entry = entry;
+        this.content = content;
+    }
+
+    public HdfsEntry getEntry()
+    {
+        return entry;
+    }
+
+    public Iterator<Row> getContent()
+    {
+        return content;
+    }
+}
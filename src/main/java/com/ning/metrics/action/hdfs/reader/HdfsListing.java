@@ -16,44 +16,80 @@
 
 package com.ning.metrics.action.hdfs.reader;
 
+import com.ning.metrics.action.hdfs.data.CloseableIterator;
+import com.ning.metrics.action.hdfs.data.Row;
 import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.collect.ImmutableList;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Container for list of {@link HdfsEntry}.
  * In practice, this is a collection of files and directories.
+ * <p/>
+ * Closing the listing releases the files still open by its content iterators, e.g. when a request is aborted.
  *
  * @see HdfsEntry
  */
-public class HdfsListing
+public class HdfsListing implements Closeable
 {
     private static final byte DELIMITER = (byte) ',';
+    private static final int BINARY_BUFFER_SIZE = 65536;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final SmileFactory smileFactory = new SmileFactory();
 
     private final Path path;
     private final String parentPath;
-    private final ImmutableList<HdfsEntry> entries;
     private final boolean recursive;
     private final boolean raw;
     private final RowFileContentsIteratorFactory rowFileContentsIteratorFactory;
+    private final ParallelContentDecoder contentDecoder;
+
+    // In streaming mode, entries are discovered as they are consumed
+    private Iterator<HdfsEntry> pendingEntries = null;
+    private ImmutableList<HdfsEntry> entries = null;
+    // Content iterators handed out, to close with the listing
+    private final List<Closeable> openContents = new ArrayList<Closeable>();
 
     public static final String JSON_LISTING_PATH = "path";
     public static final String JSON_LISTING_PARENT_PATH = "parentPath";
     public static final String JSON_LISTING_ENTRIES = "entries";
 
+    // Tags of the binary export
+    public static final byte BINARY_END = 0;
+    public static final byte BINARY_ENTRY = 1;
+    public static final byte BINARY_SCHEMA = 2;
+    public static final byte BINARY_ROW = 3;
+
+    // Field added to the rows of the NDJSON export, for the path of their file
+    public static final String NDJSON_PATH = "_path";
+    // Flush the NDJSON export every so often, to detect disconnected clients
+    private static final int NDJSON_FLUSH_ROWS = 1000;
+
     @JsonCreator
     @SuppressWarnings("unused")
     public HdfsListing(@JsonProperty(JSON_LISTING_PATH) String path,
@@ -67,19 +103,98 @@ public class HdfsListing
         raw = true;
         recursive = false;
         rowFileContentsIteratorFactory = null;
+        contentDecoder = null;
     }
 
     public HdfsListing(FileSystem fileSystem, Path path, boolean raw, RowFileContentsIteratorFactory rowFileContentsIteratorFactory, boolean recursive) throws IOException
+    {
+        this(fileSystem, path, raw, rowFileContentsIteratorFactory, recursive, null);
+    }
+
+    /**
+     * Build a listing, using a crawler to list subdirectories concurrently for recursive listings.
+     *
+     * @param fileSystem                     FileSystem to list
+     * @param path                           path to list
+     * @param raw                            whether to lookup the schema when reading the entries content
+     * @param rowFileContentsIteratorFactory factory for the entries content
+     * @param recursive                      whether to list subdirectories
+     * @param crawler                        crawler for recursive listings, null to crawl on the calling thread
+     * @throws IOException HDFS crawling error
+     */
+    public HdfsListing(FileSystem fileSystem, Path path, boolean raw, RowFileContentsIteratorFactory rowFileContentsIteratorFactory, boolean recursive, HdfsCrawler crawler) throws IOException
+    {
+        this(fileSystem, path, raw, rowFileContentsIteratorFactory, recursive, crawler, false);
+    }
+
+    /**
+     * Build a listing, possibly in streaming mode.
+     * <p/>
+     * In streaming mode, the crawl happens while the entries are consumed via {@link #streamEntries()}: memory
+     * usage doesn't depend on the number of entries and the first entries are available right away.
+     *
+     * @param fileSystem                     FileSystem to list
+     * @param path                           path to list
+     * @param raw                            whether to lookup the schema when reading the entries content
+     * @param rowFileContentsIteratorFactory factory for the entries content
+     * @param recursive                      whether to list subdirectories
+     * @param crawler                        crawler for recursive listings, null to crawl on the calling thread
+     * @param streaming                      whether to discover the entries lazily (requires a crawler)
+     * @throws IOException HDFS crawling error
+     */
+    public HdfsListing(FileSystem fileSystem, Path path, boolean raw, RowFileContentsIteratorFactory rowFileContentsIteratorFactory, boolean recursive, HdfsCrawler crawler, boolean streaming) throws IOException
     {
         this.path = path;
-        this.parentPath = "/".equals(path.toUri().toString()) ? null : path.getParent().toUri().toString();
+        this.parentPath = getParentPath(path);
+        this.raw = raw;
+        this.recursive = recursive;
+        this.rowFileContentsIteratorFactory = rowFileContentsIteratorFactory;
+        this.contentDecoder = null;
+
+        if (streaming && crawler != null) {
+            this.pendingEntries = crawler.stream(fileSystem, path, raw, rowFileContentsIteratorFactory, recursive);
+        }
+        else if (recursive && crawler != null) {
+            this.entries = crawler.crawl(fileSystem, path, raw, rowFileContentsIteratorFactory);
+        }
+        else {
+            final ImmutableList.Builder<HdfsEntry> entriesBuilder = ImmutableList.builder();
+            findEntries(fileSystem, path, entriesBuilder);
+            this.entries = entriesBuilder.build();
+        }
+    }
+
+    /**
+     * Build a streaming listing for a path we already have the FileStatus of.
+     * <p/>
+     * For a file, this doesn't require any call to the namenode.
+     *
+     * @param fileSystem                     FileSystem to list
+     * @param status                         file or directory to list
+     * @param raw                            whether to lookup the schema when reading the entries content
+     * @param rowFileContentsIteratorFactory factory for the entries content
+     * @param recursive                      whether to list subdirectories
+     * @param crawler                        crawler to discover the entries
+     * @param contentDecoder                 decoder for the entries content, null to decode on the calling thread
+     * @throws IOException HDFS crawling error
+     * @see #HdfsListing(org.apache.hadoop.fs.FileSystem, org.apache.hadoop.fs.Path, boolean, com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory, boolean, HdfsCrawler, boolean)
+     */
+    public HdfsListing(FileSystem fileSystem, FileStatus status, boolean raw, RowFileContentsIteratorFactory rowFileContentsIteratorFactory, boolean recursive, HdfsCrawler crawler, ParallelContentDecoder contentDecoder) throws IOException
+    {
+        this.path = status.getPath();
+        this.parentPath = getParentPath(path);
         this.raw = raw;
         this.recursive = recursive;
         this.rowFileContentsIteratorFactory = rowFileContentsIteratorFactory;
+        this.contentDecoder = contentDecoder;
 
-        final ImmutableList.Builder<HdfsEntry> entriesBuilder = ImmutableList.builder();
-        findEntries(fileSystem, path, entriesBuilder);
-        this.entries = entriesBuilder.build();
+        this.pendingEntries = crawler.stream(fileSystem, status, raw, rowFileContentsIteratorFactory, recursive);
+    }
+
+    private static String getParentPath(final Path path)
+    {
+        // The path may be qualified (e.g. hdfs://namenode:9000/)
+        return path.getParent() == null ? null : path.getParent().toUri().getPath();
     }
 
     private void findEntries(FileSystem fs, Path p, ImmutableList.Builder<HdfsEntry> entriesBuilder) throws IOException
@@ -120,34 +235,206 @@ public class HdfsListing
 
     /**
      * Returns a list of the child files and folders of this listing.
+     * <p/>
+     * In streaming mode, this finishes the crawl and keeps all entries in memory: prefer {@link #streamEntries()}.
      *
      * @return list of child entries
      */
-    public ImmutableList<HdfsEntry> getEntries()
+    public synchronized ImmutableList<HdfsEntry> getEntries()
     {
+        if (entries == null) {
+            entries = ImmutableList.copyOf(streamEntries());
+        }
         return entries;
     }
 
+    /**
+     * Iterate over the child files and folders of this listing.
+     * <p/>
+     * In streaming mode, entries are discovered while iterating and this method can only be called once.
+     *
+     * @return iterator over the child entries
+     * @throws HdfsCrawlerException if an entry can't be listed while iterating
+     */
+    public synchronized Iterator<HdfsEntry> streamEntries()
+    {
+        if (entries != null) {
+            return entries.iterator();
+        }
+        else if (pendingEntries != null) {
+            final Iterator<HdfsEntry> streamedEntries = pendingEntries;
+            pendingEntries = null;
+            return streamedEntries;
+        }
+        else {
+            throw new IllegalStateException("Entries of " + getPath() + " have already been streamed");
+        }
+    }
+
+    /**
+     * Iterate over the child files and folders of this listing, with their content.
+     * <p/>
+     * Moving to the next entry releases the content of the previous one.
+     *
+     * @param ordered whether the entries must be returned in listing order (only relevant when decoding in parallel)
+     * @return iterator over the child entries and their content, to close once done
+     * @throws HdfsCrawlerException if an entry can't be listed while iterating
+     * @see ParallelContentDecoder
+     */
+    public CloseableIterator<HdfsEntryContent> streamContents(final boolean ordered)
+    {
+        return track(streamContents(streamEntries(), ordered));
+    }
+
+    /**
+     * Iterate over a range of rows of this listing.
+     * <p/>
+     * Files whose row count is known are skipped without being opened. The first file of the range is positioned on
+     * the calling thread, skipping records without decoding them when possible. Decoding stops once the limit is
+     * reached.
+     *
+     * @param ordered whether the entries must be returned in listing order (only relevant when decoding in parallel)
+     * @param offset  number of rows to skip
+     * @param limit   maximum number of rows to return, -1 for no limit
+     * @return iterator over the entries in the range and their content, to close once done
+     * @throws HdfsCrawlerException if an entry can't be listed while iterating
+     */
+    public CloseableIterator<HdfsEntryContent> streamContents(final boolean ordered, final long offset, final long limit)
+    {
+        final Iterator<HdfsEntry> entries = streamEntries();
+
+        HdfsEntryContent first = null;
+        long remaining = offset;
+        while (remaining > 0 && entries.hasNext()) {
+            final HdfsEntry entry = entries.next();
+
+            final long rowCount = entry.getRowCount();
+            if (rowCount >= 0 && rowCount <= remaining) {
+                remaining -= rowCount;
+                continue;
+            }
+
+            final Iterator<Row> content;
+            try {
+                content = entry.getContent();
+            }
+            catch (IOException e) {
+                // Same as when decoding: unreadable files are empty
+                continue;
+            }
+
+            remaining -= RowFileContentsIteratorFactory.skip(content, remaining);
+            if (content.hasNext()) {
+                first = new HdfsEntryContent(entry, content);
+            }
+            else {
+                close(content);
+            }
+        }
+
+        final CloseableIterator<HdfsEntryContent> rest = streamContents(entries, ordered);
+        final CloseableIterator<HdfsEntryContent> contents = first == null ? rest : new PrependedContentsIterator(first, rest);
+        if (limit < 0) {
+            return track(contents);
+        }
+        else {
+            return track(new LimitedContentsIterator(contents, limit));
+        }
+    }
+
+    private synchronized CloseableIterator<HdfsEntryContent> track(final CloseableIterator<HdfsEntryContent> iterator)
+    {
+        openContents.add(iterator);
+        return iterator;
+    }
+
+    /**
+     * Close all content iterators of this listing. Closing an iterator twice is a no-op.
+     */
+    @Override
+    public synchronized void close()
+    {
+        for (final Closeable content : openContents) {
+            try {
+                content.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+        openContents.clear();
+    }
+
+    private CloseableIterator<HdfsEntryContent> streamContents(final Iterator<HdfsEntry> entries, final boolean ordered)
+    {
+        if (contentDecoder != null) {
+            return contentDecoder.decode(entries, ordered);
+        }
+        else {
+            return new SequentialContentsIterator(entries);
+        }
+    }
+
+    private static void close(final Iterator<Row> content)
+    {
+        if (content instanceof Closeable) {
+            try {
+                ((Closeable) content).close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
     @SuppressWarnings({"unchecked", "unused"})
     public void toJson(final OutputStream out, final boolean pretty) throws IOException
     {
-        final String parentPath = getParentPath() == null ? "" : getParentPath();
+        toJson(out, pretty, true);
+    }
 
-        final JsonGenerator generator = new JsonFactory().createJsonGenerator(out);
-        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    public void toJson(final OutputStream out, final boolean pretty, final boolean ordered) throws IOException
+    {
+        final JsonGenerator generator = jsonFactory.createJsonGenerator(out);
         if (pretty) {
             generator.setPrettyPrinter(new DefaultPrettyPrinter());
         }
 
+        toJson(generator, ordered);
+    }
+
+    /**
+     * Same as the JSON export, Smile-encoded (binary JSON): smaller on the wire and cheaper to parse.
+     *
+     * @param out     stream to write to, not closed
+     * @param ordered whether the entries must be written in listing order
+     * @throws IOException generic I/O Exception
+     */
+    public void toSmile(final OutputStream out, final boolean ordered) throws IOException
+    {
+        toJson(smileFactory.createJsonGenerator(out), ordered);
+    }
+
+    private void toJson(final JsonGenerator generator, final boolean ordered) throws IOException
+    {
+        final String parentPath = getParentPath() == null ? "" : getParentPath();
+
+        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
         generator.writeStartObject();
         generator.writeObjectField(JSON_LISTING_PATH, getPath());
         generator.writeObjectField(JSON_LISTING_PARENT_PATH, parentPath);
         generator.writeArrayFieldStart(JSON_LISTING_ENTRIES);
-        // Important: need to flush before appending pre-serialized events
+        // Send the header right away, so that clients can start processing
         generator.flush();
 
-        for (HdfsEntry entry : getEntries()) {
-            entry.toJson(generator);
+        final CloseableIterator<HdfsEntryContent> contents = streamContents(ordered);
+        try {
+            while (contents.hasNext()) {
+                final HdfsEntryContent content = contents.next();
+                content.getEntry().toJson(generator, content.getContent());
+            }
+        }
+        finally {
+            contents.close();
         }
         generator.writeEndArray();
 
@@ -155,6 +442,298 @@ public class HdfsListing
         generator.close();
     }
 
+    /**
+     * Export the rows of this listing in a compact binary format, a sequence of tagged records:
+     * <ul>
+     * <li>BINARY_ENTRY, followed by the path of the file (UTF), starts the rows of a file</li>
+     * <li>BINARY_SCHEMA, followed by the row class name (UTF) and the {@link RowSchema}, applies to the next rows</li>
+     * <li>BINARY_ROW, followed by the length of the row (vint) and the row data (see {@link Row#writeData})</li>
+     * <li>BINARY_END, ends the listing</li>
+     * </ul>
+     * Schemas are written only when they change: rows of a same event type usually share their (frozen) schema.
+     *
+     * @param out     stream to write to, not closed
+     * @param ordered whether the entries must be written in listing order
+     * @throws IOException generic I/O Exception
+     */
+    public void toBinary(final OutputStream out, final boolean ordered) throws IOException
+    {
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out, BINARY_BUFFER_SIZE));
+        // Reused to compute the length of the rows
+        final DataOutputBuffer rowBuffer = new DataOutputBuffer();
+        RowSchema currentSchema = null;
+
+        final CloseableIterator<HdfsEntryContent> contents = streamContents(ordered);
+        try {
+            while (contents.hasNext()) {
+                final HdfsEntryContent content = contents.next();
+                output.writeByte(BINARY_ENTRY);
+                output.writeUTF(content.getEntry().getPath());
+
+                final Iterator<Row> rows = content.getContent();
+                while (rows != null && rows.hasNext()) {
+                    final Row row = rows.next();
+
+                    if (row.getSchema() != currentSchema) {
+                        currentSchema = row.getSchema();
+                        output.writeByte(BINARY_SCHEMA);
+                        output.writeUTF(row.getClass().getName());
+                        currentSchema.write(output);
+                    }
+
+                    rowBuffer.reset();
+                    row.writeData(rowBuffer);
+                    output.writeByte(BINARY_ROW);
+                    WritableUtils.writeVInt(output, rowBuffer.getLength());
+                    output.write(rowBuffer.getData(), 0, rowBuffer.getLength());
+                }
+            }
+        }
+        finally {
+            contents.close();
+        }
+
+        output.writeByte(BINARY_END);
+        output.flush();
+    }
+
+    /**
+     * Export the rows of this listing as newline-delimited JSON: one JSON object per row and per line, without any
+     * enclosing document, so that clients can process exports of any size incrementally.
+     * <p/>
+     * The output is flushed regularly: if the client went away, writing fails early and the listing is closed, which
+     * stops decoding the remaining files.
+     *
+     * @param out      stream to write to, not closed
+     * @param ordered  whether the entries must be written in listing order
+     * @param offset   number of rows to skip
+     * @param limit    maximum number of rows to write, -1 for no limit
+     * @param withPath whether to add the path of the file to each row, as the NDJSON_PATH field
+     * @return number of rows written
+     * @throws IOException generic I/O Exception, e.g. when the client disconnects
+     */
+    public long toNdjson(final OutputStream out, final boolean ordered, final long offset, final long limit, final boolean withPath) throws IOException
+    {
+        final JsonGenerator generator = jsonFactory.createJsonGenerator(out);
+        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+        long written = 0;
+        final CloseableIterator<HdfsEntryContent> contents = streamContents(ordered, offset, limit);
+        try {
+            while (contents.hasNext()) {
+                final HdfsEntryContent content = contents.next();
+                final String entryPath = content.getEntry().getPath();
+
+                final Iterator<Row> rows = content.getContent();
+                while (rows.hasNext()) {
+                    final Row row = rows.next();
+                    if (withPath) {
+                        generator.writeStartObject();
+                        generator.writeStringField(NDJSON_PATH, entryPath);
+                        row.writeJSONFields(generator);
+                        generator.writeEndObject();
+                    }
+                    else {
+                        row.toJSON(generator);
+                    }
+                    generator.writeRaw('\n');
+
+                    written++;
+                    if (written % NDJSON_FLUSH_ROWS == 0) {
+                        generator.flush();
+                    }
+                }
+            }
+
+            generator.close();
+        }
+        catch (IOException e) {
+            // Most likely the client went away: don't decode the remaining files
+            close();
+            throw e;
+        }
+        finally {
+            contents.close();
+        }
+
+        return written;
+    }
+
+    /**
+     * Decode the content of the entries one after the other, on the calling thread
+     */
+    private static final class SequentialContentsIterator implements CloseableIterator<HdfsEntryContent>
+    {
+        private final Iterator<HdfsEntry> entries;
+        private Iterator<Row> content = null;
+
+        private SequentialContentsIterator(final Iterator<HdfsEntry> entries)
+        {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return entries.hasNext();
+        }
+
+        @Override
+        public HdfsEntryContent next()
+        {
+            release();
+
+            final HdfsEntry entry = entries.next();
+            try {
+                content = entry.getContent();
+            }
+            catch (IOException e) {
+                // Same as the parallel decoder: unreadable files are empty
+                content = Collections.<Row>emptyList().iterator();
+            }
+
+            return new HdfsEntryContent(entry, content);
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove not implemented; read-only iterator");
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            release();
+        }
+
+        private void release()
+        {
+            HdfsListing.close(content);
+            content = null;
+        }
+    }
+
+    /**
+     * Entry already opened (e.g. positioned at an offset), followed by other entries
+     */
+    private static final class PrependedContentsIterator implements CloseableIterator<HdfsEntryContent>
+    {
+        private HdfsEntryContent first;
+        private final CloseableIterator<HdfsEntryContent> rest;
+
+        private PrependedContentsIterator(final HdfsEntryContent first, final CloseableIterator<HdfsEntryContent> rest)
+        {
+            this.first = first;
+            this.rest = rest;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return first != null || rest.hasNext();
+        }
+
+        @Override
+        public HdfsEntryContent next()
+        {
+            if (first != null) {
+                final HdfsEntryContent next = first;
+                first = null;
+                return next;
+            }
+            else {
+                return rest.next();
+            }
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove not implemented; read-only iterator");
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (first != null) {
+                HdfsListing.close(first.getContent());
+                first = null;
+            }
+            rest.close();
+        }
+    }
+
+    /**
+     * Stop reading once a number of rows has been returned
+     */
+    private static final class LimitedContentsIterator implements CloseableIterator<HdfsEntryContent>
+    {
+        private final CloseableIterator<HdfsEntryContent> contents;
+        private long remaining;
+
+        private LimitedContentsIterator(final CloseableIterator<HdfsEntryContent> contents, final long limit)
+        {
+            this.contents = contents;
+            this.remaining = limit;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return remaining > 0 && contents.hasNext();
+        }
+
+        @Override
+        public HdfsEntryContent next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final HdfsEntryContent next = contents.next();
+            final Iterator<Row> content = next.getContent();
+
+            return new HdfsEntryContent(next.getEntry(), new Iterator<Row>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return remaining > 0 && content.hasNext();
+                }
+
+                @Override
+                public Row next()
+                {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    remaining--;
+                    return content.next();
+                }
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("remove not implemented; read-only iterator");
+                }
+            });
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove not implemented; read-only iterator");
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            contents.close();
+        }
+    }
+
     @Override
     public String toString()
     {
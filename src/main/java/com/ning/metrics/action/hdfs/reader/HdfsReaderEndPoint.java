@@ -18,31 +18,74 @@ package com.ning.metrics.action.hdfs.reader;
 
 import com.google.common.io.ByteStreams;
 import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+import com.ning.metrics.action.hdfs.data.RowFilter;
 import com.ning.metrics.serialization.hadoop.FileSystemAccess;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 
 import javax.inject.Inject;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 public class HdfsReaderEndPoint
 {
     private final FileSystemAccess fileSystemAccess;
     private final RowFileContentsIteratorFactory rowFileContentsIteratorFactory;
+    private final HdfsCrawler crawler;
+    private final FileStatusCache fileStatusCache;
+    private final ParallelContentDecoder contentDecoder;
 
     @Inject
-    public HdfsReaderEndPoint(final RowFileContentsIteratorFactory rowFileContentsIteratorFactory, final FileSystemAccess fileSystemAccess) throws IOException
+    public HdfsReaderEndPoint(final RowFileContentsIteratorFactory rowFileContentsIteratorFactory, final FileSystemAccess fileSystemAccess, final HdfsCrawler crawler,
+                              final FileStatusCache fileStatusCache, final ParallelContentDecoder contentDecoder) throws IOException
     {
         this.rowFileContentsIteratorFactory = rowFileContentsIteratorFactory;
         this.fileSystemAccess = fileSystemAccess;
+        this.crawler = crawler;
+        this.fileStatusCache = fileStatusCache;
+        this.contentDecoder = contentDecoder;
+    }
+
+    /**
+     * Lookup a path in HDFS.
+     * <p/>
+     * The returned FileStatus should be passed along for the rest of the request, to avoid further namenode lookups.
+     *
+     * @param path path to either a file or directory
+     * @return FileStatus of the path
+     * @throws FileNotFoundException if the path doesn't exist
+     * @throws IOException           generic I/O Exception
+     */
+    public FileStatus resolve(final String path) throws IOException
+    {
+        return fileStatusCache.getFileStatus(fileSystemAccess.get(), new Path(path));
+    }
+
+    /**
+     * Forget the cached namenode lookups of a path, after writing or deleting it
+     *
+     * @param path file or directory which changed
+     * @throws IOException generic I/O Exception
+     */
+    public void invalidate(final String path) throws IOException
+    {
+        fileStatusCache.invalidate(fileSystemAccess.get(), new Path(path));
     }
 
     public boolean isDir(final String path) throws IOException
     {
-        return !fileSystemAccess.get().isFile(new Path(path));
+        try {
+            return resolve(path).isDir();
+        }
+        catch (FileNotFoundException e) {
+            // Consistent with !FileSystem#isFile
+            return true;
+        }
     }
 
     /**
@@ -57,8 +100,22 @@ public class HdfsReaderEndPoint
         return getListing(dir, false, false);
     }
 
+    /**
+     * Return all entries in a resolved directory.
+     *
+     * @param dir directory entries to find, see {@link #resolve(String)}
+     * @return HdfsListing containing entries in the directory
+     * @throws IOException HDFS crawling error
+     */
+    public HdfsListing getListing(final FileStatus dir) throws IOException
+    {
+        return getListing(dir, false, false);
+    }
+
     /**
      * Return content in a directory/file, possibly recursively.
+     * <p/>
+     * The listing is in streaming mode: entries are discovered while iterating over {@link HdfsListing#streamEntries()}.
      *
      * @param path      path to either a file or directory
      * @param raw       whether to lookup in Goodwill the schema
@@ -68,7 +125,53 @@ public class HdfsReaderEndPoint
      */
     public HdfsListing getListing(final String path, final boolean raw, final boolean recursive) throws IOException
     {
-        return new HdfsListing(fileSystemAccess.get(), new Path(path), raw, rowFileContentsIteratorFactory, recursive);
+        final FileStatus status;
+        try {
+            status = resolve(path);
+        }
+        catch (FileNotFoundException e) {
+            // Empty listing
+            return new HdfsListing(fileSystemAccess.get(), new Path(path), raw, rowFileContentsIteratorFactory, recursive, crawler, true);
+        }
+
+        return getListing(status, raw, recursive);
+    }
+
+    /**
+     * Return content in a resolved directory/file, possibly recursively.
+     * <p/>
+     * The listing is in streaming mode: entries are discovered while iterating over {@link HdfsListing#streamEntries()}.
+     * Their content is decoded in parallel, see {@link HdfsListing#streamContents(boolean)}.
+     *
+     * @param status    file or directory, see {@link #resolve(String)}
+     * @param raw       whether to lookup in Goodwill the schema
+     * @param recursive for directories, whether to download recursively the data
+     * @return HdfsListing containing entries in the directory
+     * @throws java.io.IOException generic I/O Exception
+     */
+    public HdfsListing getListing(final FileStatus status, final boolean raw, final boolean recursive) throws IOException
+    {
+        return getListing(status, raw, recursive, null, null);
+    }
+
+    /**
+     * Return filtered content in a resolved directory/file, possibly recursively.
+     * <p/>
+     * Rows not matching the filter are dropped while decoding the files, before being buffered or serialized. Only
+     * the requested columns of Smile and Thrift events are decoded.
+     *
+     * @param status    file or directory, see {@link #resolve(String)}
+     * @param raw       whether to lookup in Goodwill the schema
+     * @param recursive for directories, whether to download recursively the data
+     * @param filter    filter for the rows, null for none
+     * @param fields    columns to decode, in output order, null for all
+     * @return HdfsListing containing entries in the directory
+     * @throws java.io.IOException generic I/O Exception
+     */
+    public HdfsListing getListing(final FileStatus status, final boolean raw, final boolean recursive, final RowFilter filter, final List<String> fields) throws IOException
+    {
+        final RowFileContentsIteratorFactory factory = rowFileContentsIteratorFactory.projected(fields).filtered(filter);
+        return new HdfsListing(fileSystemAccess.get(), status, raw, factory, recursive, crawler, contentDecoder);
     }
 
     /**
@@ -80,7 +183,24 @@ public class HdfsReaderEndPoint
      */
     public StreamingOutput getFile(final String path) throws IOException
     {
-        final FSDataInputStream inputStream = fileSystemAccess.get().open(new Path(path));
+        return getFile(new Path(path));
+    }
+
+    /**
+     * Stream a resolved file from HDFS without doing any deserialization.
+     *
+     * @param status file to stream, see {@link #resolve(String)}
+     * @return stream of data
+     * @throws IOException generic I/O Exception
+     */
+    public StreamingOutput getFile(final FileStatus status) throws IOException
+    {
+        return getFile(status.getPath());
+    }
+
+    private StreamingOutput getFile(final Path path) throws IOException
+    {
+        final FSDataInputStream inputStream = fileSystemAccess.get().open(path);
 
         return new StreamingOutput()
         {
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.CloseableIterator;
+import com.ning.metrics.action.hdfs.data.Row;
+import com.ning.metrics.action.hdfs.data.RowAccessException;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decode the content of several files at once.
+ * <p/>
+ * A window of files is opened and decoded on a shared worker pool, ahead of the client. Each file buffers a bounded
+ * number of decoded rows: in ordered mode, files are returned in listing order (the buffers act as a reorder buffer);
+ * in unordered mode, the file with the most decoded rows is returned first, so that a slow file doesn't stall the
+ * others. Decoders with a full buffer give their worker thread back, so that slow clients can't starve the pool.
+ */
+@Singleton
+public class ParallelContentDecoder
+{
+    private static final Logger log = LoggerFactory.getLogger(ParallelContentDecoder.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final ExecutorService executor;
+    private final int requestFiles;
+    private final int batchSize;
+    private final int bufferedBatches;
+
+    @Inject
+    public ParallelContentDecoder(final ActionCoreConfig config)
+    {
+        this(Executors.newFixedThreadPool(config.getDecoderThreads(), new ThreadFactoryBuilder().setNameFormat("content-decoder-%d").setDaemon(true).build()),
+            config.getDecoderRequestFiles(),
+            config.getDecoderBufferRows());
+    }
+
+    public ParallelContentDecoder(final ExecutorService executor, final int requestFiles, final int bufferRows)
+    {
+        this.executor = executor;
+        this.requestFiles = requestFiles;
+        this.batchSize = Math.min(DEFAULT_BATCH_SIZE, bufferRows);
+        this.bufferedBatches = Math.max(1, bufferRows / batchSize);
+    }
+
+    /**
+     * Decode the content of entries in parallel.
+     * <p/>
+     * Moving to the next entry releases the content of the previous one: the content of an entry must be consumed
+     * before calling hasNext() again.
+     *
+     * @param entries entries to decode
+     * @param ordered whether to return the entries in the same order
+     * @return entries with their decoded content
+     */
+    public CloseableIterator<HdfsEntryContent> decode(final Iterator<HdfsEntry> entries, final boolean ordered)
+    {
+        return new ContentsIterator(entries, ordered);
+    }
+
+    private final class ContentsIterator implements CloseableIterator<HdfsEntryContent>
+    {
+        private final Iterator<HdfsEntry> entries;
+        private final boolean ordered;
+        // Files being decoded, in listing order
+        private final LinkedList<FileDecoder> decoders = new LinkedList<FileDecoder>();
+        private FileDecoder current = null;
+
+        private ContentsIterator(final Iterator<HdfsEntry> entries, final boolean ordered)
+        {
+            this.entries = entries;
+            this.ordered = ordered;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            release();
+            fill();
+
+            return !decoders.isEmpty();
+        }
+
+        @Override
+        public HdfsEntryContent next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            current = pick();
+            decoders.remove(current);
+            fill();
+
+            return new HdfsEntryContent(current.entry, current.rows());
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("remove not implemented; read-only iterator");
+        }
+
+        @Override
+        public void close()
+        {
+            release();
+            for (final FileDecoder decoder : decoders) {
+                decoder.cancel();
+            }
+            decoders.clear();
+        }
+
+        private void release()
+        {
+            if (current != null) {
+                // No-op if it has been fully consumed
+                current.cancel();
+                current = null;
+            }
+        }
+
+        private void fill()
+        {
+            while (decoders.size() < requestFiles && entries.hasNext()) {
+                final FileDecoder decoder = new FileDecoder(entries.next());
+                decoder.start();
+                decoders.add(decoder);
+            }
+        }
+
+        private FileDecoder pick()
+        {
+            if (ordered) {
+                return decoders.getFirst();
+            }
+
+            FileDecoder fullest = decoders.getFirst();
+            for (final FileDecoder decoder : decoders) {
+                if (decoder.done) {
+                    return decoder;
+                }
+                else if (decoder.batches.size() > fullest.batches.size()) {
+                    fullest = decoder;
+                }
+            }
+
+            return fullest;
+        }
+    }
+
+    /**
+     * Decode a single file into a bounded buffer of row batches.
+     * <p/>
+     * A decoder never blocks a worker thread waiting for the client: when its buffer is full, it returns and is
+     * resubmitted once the client has taken a batch. At most one thread runs a decoder at a time (see scheduled).
+     */
+    private final class FileDecoder implements Runnable
+    {
+        // Marker for the end of the content (compared by reference)
+        private final List<Row> endOfContent = new ArrayList<Row>(0);
+
+        private final HdfsEntry entry;
+        private final BlockingQueue<List<Row>> batches = new ArrayBlockingQueue<List<Row>>(bufferedBatches);
+        // Batches decoded but not buffered yet, the buffer being full
+        private final LinkedList<List<Row>> outbox = new LinkedList<List<Row>>();
+        // All rows are in the buffer
+        private volatile boolean done = false;
+        private volatile boolean cancelled = false;
+        private volatile Throwable error = null;
+        // Whether the decoder is submitted or running: the thread which sets it owns the decoder state below
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile Future<?> future = null;
+        private CloseableIterator<Row> content = null;
+        private boolean finished = false;
+
+        private FileDecoder(final HdfsEntry entry)
+        {
+            this.entry = entry;
+        }
+
+        private void start()
+        {
+            if (entry.isDirectory()) {
+                done = true;
+                batches.add(endOfContent);
+            }
+            else {
+                scheduled.set(true);
+                future = executor.submit(this);
+            }
+        }
+
+        /**
+         * Called by the client after taking a batch: resubmit the decoder if it stopped on a full buffer
+         */
+        private void resume()
+        {
+            if (scheduled.compareAndSet(false, true)) {
+                future = executor.submit(this);
+            }
+        }
+
+        private void cancel()
+        {
+            cancelled = true;
+            // A decoder which isn't running won't run anymore: release its reader here. Running decoders release
+            // their reader themselves.
+            if (scheduled.compareAndSet(false, true) || (future != null && future.cancel(false))) {
+                release();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            do {
+                if (!decode()) {
+                    return;
+                }
+                // Buffer full: give the thread back until the client catches up
+                scheduled.set(false);
+            }
+            // The client may have taken a batch (or cancelled) before it could see the decoder was stopped
+            while ((cancelled || batches.remainingCapacity() > 0) && scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * Decode until the buffer is full or the end of the file
+         *
+         * @return true if the buffer is full, false if the decoder is done
+         */
+        private boolean decode()
+        {
+            if (cancelled) {
+                release();
+                return false;
+            }
+
+            if (!flush()) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+
+            try {
+                if (content == null) {
+                    content = entry.getContent();
+                }
+
+                List<Row> batch = new ArrayList<Row>(batchSize);
+                while (!cancelled && content.hasNext()) {
+                    batch.add(content.next());
+
+                    if (batch.size() == batchSize) {
+                        outbox.add(batch);
+                        batch = new ArrayList<Row>(batchSize);
+                        if (!flush()) {
+                            return true;
+                        }
+                    }
+                }
+
+                if (cancelled) {
+                    release();
+                    return false;
+                }
+
+                if (!batch.isEmpty()) {
+                    outbox.add(batch);
+                }
+            }
+            catch (IOException e) {
+                log.info("Unable to read {}, skipping: {}", entry.getPath(), e.getLocalizedMessage());
+            }
+            catch (Throwable e) {
+                // Including Errors: the client must not wait for the end of the content forever
+                error = e;
+            }
+
+            // Release the reader as soon as possible, even if the client hasn't consumed the content yet
+            release();
+            finished = true;
+            outbox.add(endOfContent);
+            return !flush();
+        }
+
+        /**
+         * Move the decoded batches to the buffer, without blocking
+         *
+         * @return true if all decoded batches are buffered
+         */
+        private boolean flush()
+        {
+            while (!outbox.isEmpty()) {
+                final List<Row> batch = outbox.getFirst();
+                if (!batches.offer(batch)) {
+                    return false;
+                }
+                outbox.removeFirst();
+
+                if (batch == endOfContent) {
+                    done = true;
+                }
+            }
+
+            return true;
+        }
+
+        private void release()
+        {
+            if (content != null) {
+                try {
+                    content.close();
+                }
+                catch (IOException e) {
+                    log.warn("Unable to close reader", e);
+                }
+                content = null;
+            }
+        }
+
+        private Iterator<Row> rows()
+        {
+            return new AbstractIterator<Row>()
+            {
+                private Iterator<Row> batch = Collections.<Row>emptyList().iterator();
+
+                @Override
+                protected Row computeNext()
+                {
+                    while (!batch.hasNext()) {
+                        final List<Row> nextBatch = take();
+                        if (nextBatch == endOfContent) {
+                            if (error instanceof Error) {
+                                throw (Error) error;
+                            }
+                            else if (error instanceof RuntimeException) {
+                                throw (RuntimeException) error;
+                            }
+                            else if (error != null) {
+                                throw new RowAccessException("Unable to decode " + entry.getPath(), error);
+                            }
+                            return endOfData();
+                        }
+                        batch = nextBatch.iterator();
+                    }
+
+                    return batch.next();
+                }
+            };
+        }
+
+        private List<Row> take()
+        {
+            final List<Row> batch;
+            try {
+                batch = batches.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RowAccessException("Interrupted while reading " + entry.getPath(), e);
+            }
+
+            if (batch != endOfContent) {
+                resume();
+            }
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.schema;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.goodwill.access.GoodwillSchemaField;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registrar which doesn't block startup on Goodwill.
+ * <p/>
+ * It starts in degraded mode (no schemas, as the NoOpRegistrar) and connects to Goodwill in the background, retrying
+ * every action.registrar.retry milliseconds until it succeeds. The GoodwillRegistrar is then swapped in, and keeps its
+ * schemas up to date on its own.
+ */
+public class AsyncRegistrar implements Registrar, Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(AsyncRegistrar.class);
+
+    private final ScheduledExecutorService loader;
+
+    private volatile Registrar delegate = new NoOpRegistrar();
+
+    public AsyncRegistrar(final ActionCoreConfig config)
+    {
+        this(new Callable<Registrar>()
+        {
+            @Override
+            public Registrar call() throws Exception
+            {
+                return new GoodwillRegistrar(config);
+            }
+        }, config.getRegistrarRetryInterval());
+    }
+
+    /**
+     * @param registrarFactory builds the actual registrar, may fail
+     * @param retryInterval    delay between attempts, in milliseconds (0 to try only once)
+     */
+    AsyncRegistrar(final Callable<Registrar> registrarFactory, final long retryInterval)
+    {
+        loader = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("goodwill-registrar-loader").setDaemon(true).build());
+        final Runnable load = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    delegate = registrarFactory.call();
+                    log.info("Connected to Goodwill, schemas are now available");
+                    loader.shutdown();
+                }
+                catch (Exception e) {
+                    log.warn("Unable to connect to Goodwill, retrying in {} ms", retryInterval, e);
+                }
+            }
+        };
+
+        if (retryInterval > 0) {
+            loader.scheduleWithFixedDelay(load, 0, retryInterval, TimeUnit.MILLISECONDS);
+        }
+        else {
+            loader.execute(load);
+            loader.shutdown();
+        }
+    }
+
+    /**
+     * Stop connecting to Goodwill, and release the actual registrar if any
+     */
+    @Override
+    public void close() throws IOException
+    {
+        loader.shutdownNow();
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    /**
+     * Wait for the loader to stop, i.e. until connected to Goodwill, out of attempts or closed
+     *
+     * @param timeout maximum time to wait
+     * @param unit    unit of the timeout
+     * @return false if the loader is still running
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitLoader(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        return loader.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return false while running without schemas
+     */
+    public boolean isLoaded()
+    {
+        return !(delegate instanceof NoOpRegistrar);
+    }
+
+    @Override
+    public String getCanonicalName(final String type)
+    {
+        return delegate.getCanonicalName(type);
+    }
+
+    @Override
+    public Collection<String> getAllTypes()
+    {
+        return delegate.getAllTypes();
+    }
+
+    @Override
+    public Map<Short, GoodwillSchemaField> getSchema(final String type)
+    {
+        return delegate.getSchema(type);
+    }
+
+    @Override
+    public ProjectionPlan getProjectionPlan(final String type)
+    {
+        return delegate.getProjectionPlan(type);
+    }
+}
@@ -21,18 +21,39 @@ import com.ning.metrics.goodwill.access.CachingGoodwillAccessor;
 import com.ning.metrics.goodwill.access.GoodwillSchema;
 import com.ning.metrics.goodwill.access.GoodwillSchemaField;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.inject.Inject;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class GoodwillRegistrar implements Registrar
+/**
+ * Registrar backed by Goodwill.
+ * <p/>
+ * Projection plans are compiled once per event type and cached. They are rebuilt in the background, every
+ * action.registrar.refresh milliseconds, to pick up schema changes (0 to disable the refresh).
+ */
+public class GoodwillRegistrar implements Registrar, Closeable
 {
+    private static final Logger log = LoggerFactory.getLogger(GoodwillRegistrar.class);
+
     private final CachingGoodwillAccessor goodwillAccessor;
+    private final ScheduledExecutorService refresher;
+
+    private volatile ConcurrentMap<String, ProjectionPlan> plans = new ConcurrentHashMap<String, ProjectionPlan>();
 
     @Inject
     public GoodwillRegistrar(ActionCoreConfig config) throws IOException, ExecutionException, InterruptedException
@@ -41,6 +62,34 @@ public class GoodwillRegistrar implements Registrar
         int port = config.getRegistrarPort();
 
         goodwillAccessor = new CachingGoodwillAccessor(host, port);
+
+        final long refreshInterval = config.getRegistrarRefreshInterval();
+        if (refreshInterval <= 0) {
+            // Plans are compiled on first use and never refreshed
+            refresher = null;
+            return;
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("goodwill-registrar-refresher").setDaemon(true).build());
+        refresher.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refreshPlans();
+            }
+        }, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop refreshing the projection plans. The plans already compiled are still served.
+     */
+    @Override
+    public void close()
+    {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
     }
 
     @Override
@@ -72,19 +121,57 @@ public class GoodwillRegistrar implements Registrar
     @Override
     public Map<Short, GoodwillSchemaField> getSchema(String type)
     {
-        // Make sure to use a LinkedHashMap to preserve ordering
-        Map<Short, GoodwillSchemaField> result = new LinkedHashMap<Short, GoodwillSchemaField>();
-
-        GoodwillSchema goodwillSchema = goodwillAccessor.getSchema(type);
+        ProjectionPlan plan = getProjectionPlan(type);
         // Schema not found
-        if (goodwillSchema == null) {
+        if (plan == null) {
             return null;
         }
 
-        for (GoodwillSchemaField goodwillField : goodwillSchema.getSchema()) {
-            result.put(goodwillField.getId(), goodwillField);
+        return plan.getFields();
+    }
+
+    @Override
+    public ProjectionPlan getProjectionPlan(String type)
+    {
+        final ConcurrentMap<String, ProjectionPlan> currentPlans = plans;
+
+        ProjectionPlan plan = currentPlans.get(type);
+        if (plan == null) {
+            GoodwillSchema goodwillSchema = goodwillAccessor.getSchema(type);
+            // Schema not found (not cached, it may be registered later on)
+            if (goodwillSchema == null) {
+                return null;
+            }
+
+            plan = new ProjectionPlan(type, goodwillSchema.getSchema());
+            currentPlans.putIfAbsent(type, plan);
         }
 
-        return result;
+        return plan;
+    }
+
+    private void refreshPlans()
+    {
+        try {
+            final ConcurrentMap<String, ProjectionPlan> newPlans = new ConcurrentHashMap<String, ProjectionPlan>();
+            for (GoodwillSchema goodwillSchema : goodwillAccessor.getSchemata()) {
+                newPlans.put(goodwillSchema.getName(), new ProjectionPlan(goodwillSchema.getName(), goodwillSchema.getSchema()));
+            }
+
+            // Recompile the plans of types resolved by alias as well
+            for (String type : plans.keySet()) {
+                if (!newPlans.containsKey(type)) {
+                    GoodwillSchema goodwillSchema = goodwillAccessor.getSchema(type);
+                    if (goodwillSchema != null) {
+                        newPlans.put(type, new ProjectionPlan(type, goodwillSchema.getSchema()));
+                    }
+                }
+            }
+
+            plans = newPlans;
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to refresh Goodwill schemas, keeping the current ones", e);
+        }
     }
 }
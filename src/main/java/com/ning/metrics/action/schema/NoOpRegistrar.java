@@ -40,4 +40,10 @@ public class NoOpRegistrar implements Registrar
     {
         return null;
     }
+
+    @Override
+    public ProjectionPlan getProjectionPlan(String type)
+    {
+        return null;
+    }
 }
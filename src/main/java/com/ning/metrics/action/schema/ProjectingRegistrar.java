@@ -0,0 +1,90 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.metrics.action.schema;
+
+import com.ning.metrics.goodwill.access.GoodwillSchemaField;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registrar restricting the projection plans of another one to some fields.
+ * <p/>
+ * Serializers only materialize the fields of the plans: wrapping the registrar pushes a column projection down to
+ * the decoders. Events without schema are projected by field name too.
+ *
+ * @see ProjectionPlan#project(java.util.List)
+ */
+public class ProjectingRegistrar implements Registrar
+{
+    private final Registrar delegate;
+    private final List<String> fields;
+
+    // Projected plans, by event type
+    private final ConcurrentMap<String, ProjectionPlan> plans = new ConcurrentHashMap<String, ProjectionPlan>();
+
+    /**
+     * @param delegate registrar to lookup the schemas from
+     * @param fields   names of the fields to keep, in output order
+     */
+    public ProjectingRegistrar(final Registrar delegate, final List<String> fields)
+    {
+        this.delegate = delegate;
+        this.fields = fields;
+    }
+
+    @Override
+    public String getCanonicalName(final String type)
+    {
+        return delegate.getCanonicalName(type);
+    }
+
+    @Override
+    public Collection<String> getAllTypes()
+    {
+        return delegate.getAllTypes();
+    }
+
+    @Override
+    public Map<Short, GoodwillSchemaField> getSchema(final String type)
+    {
+        return delegate.getSchema(type);
+    }
+
+    @Override
+    public ProjectionPlan getProjectionPlan(final String type)
+    {
+        ProjectionPlan plan = plans.get(type);
+        if (plan == null) {
+            final ProjectionPlan fullPlan = delegate.getProjectionPlan(type);
+            if (fullPlan == null) {
+                plan = ProjectionPlan.forFields(type, fields);
+            }
+            else {
+                plan = fullPlan.project(fields);
+            }
+
+            plans.putIfAbsent(type, plan);
+        }
+
+        return plan;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.schema;
+
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.hdfs.data.schema.RowSchemaCache;
+import com.ning.metrics.goodwill.access.GoodwillSchemaField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, precomputed projection of events onto a schema: which fields to output, in which order.
+ * <p/>
+ * Plans are built once per event type by the Registrar, so that serializers don't have to walk the schema for every
+ * event.
+ */
+public class ProjectionPlan
+{
+    private final String name;
+    private final Map<Short, GoodwillSchemaField> fields;
+    private final String[] fieldNames;
+    // Position in the row, by thrift id (-1 if the id isn't part of the schema)
+    private final int[] positionsById;
+    // Position of each field in the full event (thrift payload order)
+    private final int[] sourcePositions;
+    // Whether the other fields of the events must be dropped
+    private final boolean projection;
+    private final RowSchema rowSchema;
+
+    /**
+     * @param name   event type
+     * @param fields schema fields, in output order
+     */
+    public ProjectionPlan(final String name, final Iterable<GoodwillSchemaField> fields)
+    {
+        this(name, indexById(fields), false);
+    }
+
+    private ProjectionPlan(final String name, final Map<Short, GoodwillSchemaField> fieldsById, final boolean projection)
+    {
+        this(name, fieldsById, namesOf(fieldsById.values()), idsOf(fieldsById.values()), identity(fieldsById.size()), projection);
+    }
+
+    private ProjectionPlan(final String name, final Map<Short, GoodwillSchemaField> fields, final String[] fieldNames,
+                           final short[] ids, final int[] sourcePositions, final boolean projection)
+    {
+        this.name = name;
+        this.fields = Collections.unmodifiableMap(fields);
+        this.fieldNames = fieldNames;
+        this.sourcePositions = sourcePositions;
+        this.projection = projection;
+
+        int maxId = -1;
+        for (final short id : ids) {
+            maxId = Math.max(maxId, id);
+        }
+        positionsById = new int[maxId + 1];
+        Arrays.fill(positionsById, -1);
+        for (int position = 0; position < ids.length; position++) {
+            if (ids[position] >= 0) {
+                positionsById[ids[position]] = position;
+            }
+        }
+
+        rowSchema = RowSchemaCache.getSchema(name, Arrays.asList(fieldNames));
+    }
+
+    /**
+     * Restrict this plan to some fields. Fields which aren't part of the schema are ignored.
+     *
+     * @param requestedFields names of the fields to keep, in output order
+     * @return plan materializing only the requested fields
+     */
+    public ProjectionPlan project(final List<String> requestedFields)
+    {
+        final Map<Short, GoodwillSchemaField> projectedFields = new LinkedHashMap<Short, GoodwillSchemaField>();
+        final List<Integer> positions = new ArrayList<Integer>(requestedFields.size());
+        for (final String requestedField : requestedFields) {
+            for (int position = 0; position < fieldNames.length; position++) {
+                if (fieldNames[position].equals(requestedField) && !positions.contains(position)) {
+                    positions.add(position);
+                    break;
+                }
+            }
+        }
+
+        final String[] projectedNames = new String[positions.size()];
+        final short[] projectedIds = new short[positions.size()];
+        final int[] projectedSourcePositions = new int[positions.size()];
+        final GoodwillSchemaField[] fieldsByPosition = fields.values().toArray(new GoodwillSchemaField[fields.size()]);
+        for (int i = 0; i < positions.size(); i++) {
+            final int position = positions.get(i);
+            final GoodwillSchemaField field = fieldsByPosition[position];
+
+            projectedFields.put(field.getId(), field);
+            projectedNames[i] = fieldNames[position];
+            projectedIds[i] = field.getId();
+            projectedSourcePositions[i] = sourcePositions[position];
+        }
+
+        return new ProjectionPlan(name, projectedFields, projectedNames, projectedIds, projectedSourcePositions, true);
+    }
+
+    /**
+     * Plan for events without schema, materializing only some fields.
+     * <p/>
+     * Without schema, thrift fields are named after their id (envelopes) or their position, starting at 1 (thrift
+     * files): numeric field names designate these fields.
+     *
+     * @param name            event type
+     * @param requestedFields names of the fields to keep, in output order
+     * @return plan materializing only the requested fields
+     */
+    public static ProjectionPlan forFields(final String name, final List<String> requestedFields)
+    {
+        final String[] projectedNames = requestedFields.toArray(new String[requestedFields.size()]);
+        final short[] projectedIds = new short[projectedNames.length];
+        final int[] projectedSourcePositions = new int[projectedNames.length];
+        for (int i = 0; i < projectedNames.length; i++) {
+            short id;
+            try {
+                id = Short.parseShort(projectedNames[i]);
+            }
+            catch (NumberFormatException e) {
+                id = -1;
+            }
+
+            projectedIds[i] = id;
+            projectedSourcePositions[i] = id > 0 ? id - 1 : -1;
+        }
+
+        return new ProjectionPlan(name, new LinkedHashMap<Short, GoodwillSchemaField>(), projectedNames, projectedIds, projectedSourcePositions, true);
+    }
+
+    private static Map<Short, GoodwillSchemaField> indexById(final Iterable<GoodwillSchemaField> fields)
+    {
+        // Make sure to use a LinkedHashMap to preserve ordering
+        final Map<Short, GoodwillSchemaField> fieldsById = new LinkedHashMap<Short, GoodwillSchemaField>();
+        for (final GoodwillSchemaField field : fields) {
+            fieldsById.put(field.getId(), field);
+        }
+
+        return fieldsById;
+    }
+
+    private static String[] namesOf(final Collection<GoodwillSchemaField> fields)
+    {
+        final String[] names = new String[fields.size()];
+        int i = 0;
+        for (final GoodwillSchemaField field : fields) {
+            names[i++] = field.getName();
+        }
+
+        return names;
+    }
+
+    private static short[] idsOf(final Collection<GoodwillSchemaField> fields)
+    {
+        final short[] ids = new short[fields.size()];
+        int i = 0;
+        for (final GoodwillSchemaField field : fields) {
+            ids[i++] = field.getId();
+        }
+
+        return ids;
+    }
+
+    private static int[] identity(final int size)
+    {
+        final int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+
+        return positions;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return read-only view of the schema fields, by thrift id, in output order (empty for plans without schema)
+     */
+    public Map<Short, GoodwillSchemaField> getFields()
+    {
+        return fields;
+    }
+
+    public int size()
+    {
+        return fieldNames.length;
+    }
+
+    /**
+     * @param position position in the row
+     * @return name of the field at this position
+     */
+    public String getFieldName(final int position)
+    {
+        return fieldNames[position];
+    }
+
+    /**
+     * @param id thrift id
+     * @return position of the field in the row, -1 if the id isn't part of the schema
+     */
+    public int getPosition(final short id)
+    {
+        if (id < 0 || id >= positionsById.length) {
+            return -1;
+        }
+        else {
+            return positionsById[id];
+        }
+    }
+
+    /**
+     * @param position position in the row
+     * @return position of the field in the full event (e.g. in a thrift payload), -1 if unknown
+     */
+    public int getSourcePosition(final int position)
+    {
+        return sourcePositions[position];
+    }
+
+    /**
+     * @return true if the fields of the events not part of this plan must be dropped, rather than passed through
+     */
+    public boolean isProjection()
+    {
+        return projection;
+    }
+
+    /**
+     * @return the shared (frozen) schema of the projected rows
+     */
+    public RowSchema getRowSchema()
+    {
+        return rowSchema;
+    }
+}
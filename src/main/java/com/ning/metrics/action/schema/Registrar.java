@@ -28,5 +28,11 @@ public interface Registrar
     public Collection<String> getAllTypes();
 
     public Map<Short, GoodwillSchemaField> getSchema(String type);
+
+    /**
+     * @param type event type
+     * @return the precomputed projection of events of this type, null if the schema is unknown
+     */
+    public ProjectionPlan getProjectionPlan(String type);
 }
 
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.schema;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.goodwill.access.CachingGoodwillAccessor;
+import com.ning.metrics.goodwill.access.GoodwillSchema;
+import com.ning.metrics.goodwill.access.GoodwillSchemaField;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registrar backed by a local snapshot of the Goodwill schemas (Smile-encoded file).
+ * <p/>
+ * The snapshot is loaded once at startup: lookups are served from memory and never hit the network, which makes
+ * startup fast and keeps decoding going during Goodwill outages. If the registrar is enabled, the schemas are
+ * refreshed from Goodwill every action.registrar.refresh milliseconds and the snapshot file rewritten. The snapshot
+ * also remembers the canonical name of the aliases resolved by Goodwill.
+ */
+public class SnapshotRegistrar implements Registrar, Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(SnapshotRegistrar.class);
+
+    private static final SmileFactory smileFactory = new SmileFactory();
+    private static final ObjectMapper objectMapper = new ObjectMapper(smileFactory);
+
+    private static final String SNAPSHOT_SCHEMAS = "schemas";
+    private static final String SNAPSHOT_ALIASES = "aliases";
+
+    private final File snapshot;
+    private final ActionCoreConfig config;
+
+    private volatile Map<String, ProjectionPlan> plans = Collections.emptyMap();
+    // Canonical name of the types, as resolved by Goodwill (including aliases)
+    private final ConcurrentMap<String, String> canonicalNames = new ConcurrentHashMap<String, String>();
+    private volatile CachingGoodwillAccessor goodwillAccessor = null;
+    private final ScheduledExecutorService refresher;
+
+    public SnapshotRegistrar(final ActionCoreConfig config)
+    {
+        this.config = config;
+        this.snapshot = new File(config.getRegistrarSnapshot());
+
+        if (snapshot.exists()) {
+            try {
+                final Snapshot content = readSnapshot(snapshot);
+                plans = content.plans;
+                canonicalNames.putAll(content.canonicalNames);
+                log.info("Loaded {} schemas from {}", plans.size(), snapshot);
+            }
+            catch (IOException e) {
+                log.warn(String.format("Unable to load the schemas snapshot %s", snapshot), e);
+            }
+        }
+
+        if (!config.isRegistrarEnabled()) {
+            refresher = null;
+            return;
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("goodwill-snapshot-refresher").setDaemon(true).build());
+        final Runnable refresh = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refreshSnapshot();
+            }
+        };
+
+        final long refreshInterval = config.getRegistrarRefreshInterval();
+        if (refreshInterval > 0) {
+            refresher.scheduleWithFixedDelay(refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+        else {
+            // Refresh disabled: only bring the snapshot up to date at startup
+            refresher.execute(refresh);
+            refresher.shutdown();
+        }
+    }
+
+    /**
+     * Stop refreshing the snapshot. The schemas already loaded are still served.
+     */
+    @Override
+    public void close()
+    {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolve a type from the snapshot. Types unknown to the snapshot (e.g. aliases not looked up yet) are resolved by
+     * Goodwill if the registrar is enabled, and remembered in the next snapshot.
+     */
+    @Override
+    public String getCanonicalName(final String type)
+    {
+        if (plans.containsKey(type)) {
+            return type;
+        }
+
+        final String canonicalName = canonicalNames.get(type);
+        if (canonicalName != null) {
+            return canonicalName;
+        }
+
+        final CachingGoodwillAccessor accessor = goodwillAccessor;
+        if (accessor == null) {
+            return null;
+        }
+
+        final GoodwillSchema goodwillSchema = accessor.getSchema(type);
+        if (goodwillSchema == null) {
+            return null;
+        }
+
+        canonicalNames.put(type, goodwillSchema.getName());
+        return goodwillSchema.getName();
+    }
+
+    @Override
+    public Collection<String> getAllTypes()
+    {
+        return new ArrayList<String>(plans.keySet());
+    }
+
+    @Override
+    public Map<Short, GoodwillSchemaField> getSchema(final String type)
+    {
+        final ProjectionPlan plan = getProjectionPlan(type);
+        // Schema not found
+        if (plan == null) {
+            return null;
+        }
+
+        return plan.getFields();
+    }
+
+    @Override
+    public ProjectionPlan getProjectionPlan(final String type)
+    {
+        final ProjectionPlan plan = plans.get(type);
+        if (plan != null) {
+            return plan;
+        }
+
+        // Known aliases only: lookups never hit the network
+        final String canonicalName = canonicalNames.get(type);
+        return canonicalName == null ? null : plans.get(canonicalName);
+    }
+
+    private void refreshSnapshot()
+    {
+        try {
+            if (goodwillAccessor == null) {
+                goodwillAccessor = new CachingGoodwillAccessor(config.getRegistrarHost(), config.getRegistrarPort());
+            }
+
+            final Map<String, ProjectionPlan> newPlans = new HashMap<String, ProjectionPlan>();
+            for (final GoodwillSchema goodwillSchema : goodwillAccessor.getSchemata()) {
+                newPlans.put(goodwillSchema.getName(), new ProjectionPlan(goodwillSchema.getName(), goodwillSchema.getSchema()));
+            }
+
+            if (newPlans.isEmpty() && !plans.isEmpty()) {
+                // Most likely a Goodwill hiccup, don't throw away the schemas we know about
+                log.warn("No schema returned by Goodwill, keeping the current snapshot");
+                return;
+            }
+
+            plans = newPlans;
+            writeSnapshot(snapshot, new Snapshot(newPlans, canonicalNames));
+        }
+        catch (Exception e) {
+            log.warn("Unable to refresh the schemas from Goodwill, keeping the current snapshot", e);
+        }
+    }
+
+    /**
+     * Content of a snapshot file
+     */
+    static final class Snapshot
+    {
+        final Map<String, ProjectionPlan> plans;
+        final Map<String, String> canonicalNames;
+
+        Snapshot(final Map<String, ProjectionPlan> plans, final Map<String, String> canonicalNames)
+        {
+            this.plans = plans;
+            this.canonicalNames = canonicalNames;
+        }
+    }
+
+    static Snapshot readSnapshot(final File file) throws IOException
+    {
+        final Map<String, ProjectionPlan> snapshotPlans = new HashMap<String, ProjectionPlan>();
+        final Map<String, String> snapshotCanonicalNames = new HashMap<String, String>();
+
+        final JsonNode root = objectMapper.readTree(file);
+        final JsonNode schemata = root.get(SNAPSHOT_SCHEMAS);
+        final JsonNode aliases = root.get(SNAPSHOT_ALIASES);
+        if (schemata == null || aliases == null) {
+            throw new IOException(String.format("Snapshot %s doesn't contain the %s and %s fields", file, SNAPSHOT_SCHEMAS, SNAPSHOT_ALIASES));
+        }
+
+        for (final JsonNode schema : schemata) {
+            final String name = schema.get("name").asText();
+
+            final List<GoodwillSchemaField> fields = new ArrayList<GoodwillSchemaField>();
+            for (final JsonNode field : schema.get("fields")) {
+                fields.add(new GoodwillSchemaField(field.get("name").asText(), field.get("type").asText(), (short) field.get("id").asInt(), null, null, null, null, null));
+            }
+
+            snapshotPlans.put(name, new ProjectionPlan(name, fields));
+        }
+
+        final Iterator<Map.Entry<String, JsonNode>> iterator = aliases.fields();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, JsonNode> alias = iterator.next();
+            snapshotCanonicalNames.put(alias.getKey(), alias.getValue().asText());
+        }
+
+        return new Snapshot(snapshotPlans, snapshotCanonicalNames);
+    }
+
+    static void writeSnapshot(final File file, final Snapshot content) throws IOException
+    {
+        // Write the new snapshot next to the current one, then swap them
+        final File tmpFile = new File(file.getPath() + ".tmp");
+
+        final JsonGenerator generator = smileFactory.createJsonGenerator(tmpFile, JsonEncoding.UTF8);
+        try {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart(SNAPSHOT_SCHEMAS);
+            for (final ProjectionPlan plan : content.plans.values()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", plan.getName());
+                generator.writeArrayFieldStart("fields");
+                for (final GoodwillSchemaField field : plan.getFields().values()) {
+                    generator.writeStartObject();
+                    generator.writeStringField("name", field.getName());
+                    generator.writeStringField("type", String.valueOf(field.getType()));
+                    generator.writeNumberField("id", field.getId());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeObjectFieldStart(SNAPSHOT_ALIASES);
+            for (final Map.Entry<String, String> alias : content.canonicalNames.entrySet()) {
+                generator.writeStringField(alias.getKey(), alias.getValue());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        finally {
+            generator.close();
+        }
+
+        if (!tmpFile.renameTo(file)) {
+            // renameTo doesn't overwrite on all platforms
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException(String.format("Unable to move %s to %s", tmpFile, file));
+            }
+        }
+    }
+}
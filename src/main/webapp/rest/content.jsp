@@ -1,5 +1,6 @@
+<%@ page import="com.ning.metrics.action.hdfs.data.CloseableIterator" %>
 <%@ page import="com.ning.metrics.action.hdfs.data.Row" %>
-<%@ page import="com.ning.metrics.action.hdfs.reader.HdfsEntry" %>
+<%@ page import="com.ning.metrics.action.hdfs.reader.HdfsEntryContent" %>
 <%@ page import="org.apache.commons.codec.binary.Base64" %>
 <%@ page import="org.apache.commons.lang.StringUtils" %>
 <%@ page import="java.net.URLEncoder" %>
@@ -72,12 +73,13 @@
                 </th>
             </tr>
             <%
-                int currentLine = 1;
-                for (int i = 0; i < it.getEntries().size(); i++) {
-                    HdfsEntry e = it.getEntries().get(i);
-                    Iterator<Row> content = e.getContent();
+                int currentLine = startLine;
+                // Rows before the range are skipped without being rendered, and decoding stops at the end of the range
+                CloseableIterator<HdfsEntryContent> contents = it.streamContents(true, startLine - 1, endLine == -1 ? -1 : snippetLength);
+                try {
+                while (contents.hasNext()) {
+                    Iterator<Row> content = contents.next().getContent();
                     while (content.hasNext()) {
-                        if (currentLine >= startLine && (currentLine <= endLine || endLine == -1)) {
             %>
             <tr>
                 <td>
@@ -93,19 +95,15 @@
                 </td>
             </tr>
             <%
-                                }
                             }
                         }
-                        else {
-                            content.next();
-                        }
                         currentLine++;
-
-                        if (endLine != -1 && endLine < currentLine) {
-                            break;
-                        }
                     }
                 }
+                }
+                finally {
+                    contents.close();
+                }
             %>
         </table>
         <div style="clear:both;"></div>
@@ -1,7 +1,9 @@
 <%@
+page import="com.ning.metrics.action.hdfs.data.CloseableIterator"
+%><%@
 page import="com.ning.metrics.action.hdfs.data.Row"
 %><%@
-page import="com.ning.metrics.action.hdfs.reader.HdfsEntry"
+page import="com.ning.metrics.action.hdfs.reader.HdfsEntryContent"
 %><%@
 page import="org.apache.commons.lang.StringUtils"
 %><%@
@@ -41,13 +43,15 @@ page contentType="text/plain"
                     endLine = -1;
 }
 
-int currentLine = 1;
-
-for (int i = 0; i < it.getEntries().size(); i++) {
-    HdfsEntry e = it.getEntries().get(i);
-    if (e.isDirectory()) {
+// Rows before the range are skipped without being decoded when possible, and reading stops at the end of the range
+CloseableIterator<HdfsEntryContent> contents = it.streamContents(true, startLine - 1, endLine == -1 ? -1 : endLine - startLine + 1);
+try {
+while (contents.hasNext()) {
+    HdfsEntryContent e = contents.next();
+    if (e.getEntry().isDirectory()) {
         continue;
     }
     Iterator<Row> content = e.getContent();
-    while (content.hasNext()) { if (currentLine >= startLine && (currentLine <= endLine || endLine == -1)) {%><%= content.next().toString() %>
-<%  } else { content.next(); } currentLine++; if (endLine != -1 && endLine < currentLine) { break; } } } %>
+    while (content.hasNext()) {%><%= content.next().toString() %>
+<%  } }
+} finally { contents.close(); } %>
\ No newline at end of file
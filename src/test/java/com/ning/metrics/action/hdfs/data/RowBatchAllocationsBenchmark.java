@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compare the memory allocated to buffer rows with a reused RowBatch, versus a ConcurrentLinkedQueue per batch (what
+ * readers used to allocate). Not part of the unit tests: the numbers depend on the JVM (TLABs, escape analysis).
+ */
+public class RowBatchAllocationsBenchmark
+{
+    private static final Logger log = LoggerFactory.getLogger(RowBatchAllocationsBenchmark.class);
+
+    private static final RowSchema SCHEMA = new RowSchema("test", new DynamicColumnKey("record")).freeze();
+
+    public static void main(final String[] args)
+    {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean) ||
+            !((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            log.warn("Allocated memory measurement not supported by this JVM");
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        final long threadId = Thread.currentThread().getId();
+
+        final int batches = 1000;
+        final Row[] rows = new Row[RowBatch.DEFAULT_CAPACITY];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new RowText(SCHEMA, String.valueOf(i));
+        }
+
+        // Warm up both code paths
+        fillQueues(rows, batches);
+        fillBatch(rows, batches);
+
+        long start = allocations.getThreadAllocatedBytes(threadId);
+        fillQueues(rows, batches);
+        final long queueBytes = allocations.getThreadAllocatedBytes(threadId) - start;
+
+        start = allocations.getThreadAllocatedBytes(threadId);
+        fillBatch(rows, batches);
+        final long batchBytes = allocations.getThreadAllocatedBytes(threadId) - start;
+
+        log.info("Buffering {} rows allocated {} bytes with ConcurrentLinkedQueue, {} bytes with RowBatch",
+            new Object[]{batches * rows.length, queueBytes, batchBytes});
+    }
+
+    private static long fillQueues(final Row[] rows, final int batches)
+    {
+        long polled = 0;
+        for (int i = 0; i < batches; i++) {
+            final Queue<Row> queue = new ConcurrentLinkedQueue<Row>();
+            for (final Row row : rows) {
+                queue.add(row);
+            }
+            while (queue.poll() != null) {
+                polled++;
+            }
+        }
+
+        return polled;
+    }
+
+    private static long fillBatch(final Row[] rows, final int batches)
+    {
+        long polled = 0;
+        final RowBatch batch = new RowBatch();
+        for (int i = 0; i < batches; i++) {
+            batch.clear();
+            for (final Row row : rows) {
+                batch.add(row);
+            }
+            while (batch.poll() != null) {
+                polled++;
+            }
+        }
+
+        return polled;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Iterator;
+
+public class TestRowBatch
+{
+    private static final RowSchema SCHEMA = new RowSchema("test", new DynamicColumnKey("record")).freeze();
+
+    @Test(groups = "fast")
+    public void testAddAndPoll() throws Exception
+    {
+        final RowBatch batch = new RowBatch(2);
+        Assert.assertTrue(batch.isEmpty());
+        Assert.assertNull(batch.poll());
+
+        final Row first = new RowText(SCHEMA, "first");
+        final Row second = new RowText(SCHEMA, "second");
+        final Row third = new RowText(SCHEMA, "third");
+        batch.add(first);
+        Assert.assertFalse(batch.isFull());
+        batch.add(second);
+        Assert.assertTrue(batch.isFull());
+        // A single record may exceed the capacity
+        batch.add(third);
+        Assert.assertEquals(batch.size(), 3);
+
+        final Iterator<Row> iterator = batch.iterator();
+        Assert.assertEquals(iterator.next(), first);
+        Assert.assertEquals(iterator.next(), second);
+        Assert.assertEquals(iterator.next(), third);
+        Assert.assertFalse(iterator.hasNext());
+
+        Assert.assertEquals(batch.poll(), first);
+        Assert.assertEquals(batch.size(), 2);
+        Assert.assertEquals(batch.poll(), second);
+        Assert.assertEquals(batch.poll(), third);
+        Assert.assertNull(batch.poll());
+        Assert.assertTrue(batch.isEmpty());
+
+        batch.clear();
+        Assert.assertFalse(batch.isFull());
+        batch.add(first);
+        Assert.assertEquals(batch.poll(), first);
+    }
+}
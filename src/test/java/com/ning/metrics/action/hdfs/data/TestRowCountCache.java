@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRowCountCache
+{
+    @Test(groups = "fast")
+    public void testRowCounts() throws Exception
+    {
+        final RowCountCache cache = new RowCountCache(10);
+        final FileStatus status = createFileStatus("/events/a.seq", 1000, 1);
+
+        Assert.assertEquals(cache.getRowCount(status, true), -1);
+        Assert.assertEquals(cache.getMisses(), 1);
+
+        cache.putRowCount(status, true, 42);
+        Assert.assertEquals(cache.getRowCount(status, true), 42);
+        Assert.assertEquals(cache.getRowCount(createFileStatus("/events/a.seq", 1000, 1), true), 42);
+        Assert.assertEquals(cache.getHits(), 2);
+
+        // A record may be decoded into several rows outside of raw mode
+        Assert.assertEquals(cache.getRowCount(status, false), -1);
+
+        // The file changed
+        Assert.assertEquals(cache.getRowCount(createFileStatus("/events/a.seq", 2000, 1), true), -1);
+        Assert.assertEquals(cache.getRowCount(createFileStatus("/events/a.seq", 1000, 2), true), -1);
+        Assert.assertEquals(cache.getRowCount(createFileStatus("/events/b.seq", 1000, 1), true), -1);
+        Assert.assertEquals(cache.getHits(), 2);
+        Assert.assertEquals(cache.getMisses(), 5);
+        Assert.assertEquals(cache.getSize(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testBounded() throws Exception
+    {
+        final RowCountCache cache = new RowCountCache(10);
+        for (int i = 0; i < 100; i++) {
+            cache.putRowCount(createFileStatus("/events/" + i, 1000, 1), true, i);
+        }
+
+        Assert.assertTrue(cache.getSize() <= 10);
+    }
+
+    private FileStatus createFileStatus(final String path, final long length, final long modificationTime)
+    {
+        return new FileStatus(length, false, 1, 1024, modificationTime, new Path(path));
+    }
+}
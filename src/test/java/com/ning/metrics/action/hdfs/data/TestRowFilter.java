@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestRowFilter
+{
+    private static final RowSchema SCHEMA = new RowSchema("test", new DynamicColumnKey("userId"), new DynamicColumnKey("country")).freeze();
+
+    private final Row row = new RowText(SCHEMA, Arrays.asList("1234", "France"));
+    private final Row smileRow = new RowSmile(SCHEMA, Arrays.asList(new JsonNodeComparable(new IntNode(42)), new JsonNodeComparable(new TextNode("Spain"))));
+
+    @Test(groups = "fast")
+    public void testConditions() throws Exception
+    {
+        Assert.assertTrue(filter("userId=1234").matches(row));
+        Assert.assertFalse(filter("userId=123").matches(row));
+        Assert.assertTrue(filter("country^=Fr").matches(row));
+        Assert.assertFalse(filter("country^=Sp").matches(row));
+        Assert.assertTrue(filter("country~an.e$").matches(row));
+        Assert.assertTrue(filter("userId>=1234").matches(row));
+        Assert.assertFalse(filter("userId>1234").matches(row));
+        // Numerically, not lexicographically
+        Assert.assertTrue(filter("userId<9999").matches(row));
+        Assert.assertTrue(filter("userId>999").matches(row));
+        Assert.assertTrue(filter("country<Germany").matches(row));
+
+        // Numeric columns
+        Assert.assertTrue(filter("userId=42.0").matches(smileRow));
+        Assert.assertTrue(filter("userId<100").matches(smileRow));
+
+        // Missing column
+        Assert.assertFalse(filter("email=foo").matches(row));
+
+        // All conditions need to match
+        Assert.assertTrue(new RowFilter(Arrays.asList("userId=1234", "country=France")).matches(row));
+        Assert.assertFalse(new RowFilter(Arrays.asList("userId=1234", "country=Spain")).matches(row));
+    }
+
+    @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidFilter() throws Exception
+    {
+        filter("userId");
+    }
+
+    @Test(groups = "fast")
+    public void testMightMatch() throws Exception
+    {
+        final byte[] line = "1234\tFrance".getBytes("UTF-8");
+
+        Assert.assertTrue(filter("country=France").mightMatch(line, 0, line.length));
+        Assert.assertFalse(filter("country=Spain").mightMatch(line, 0, line.length));
+        Assert.assertTrue(filter("userId^=12").mightMatch(line, 0, line.length));
+        Assert.assertFalse(filter("userId^=12").mightMatch(line, 5, line.length - 5));
+        // Only equality and prefix conditions prefilter
+        Assert.assertTrue(filter("country~Spain").mightMatch(line, 0, line.length));
+        Assert.assertTrue(filter("userId>9999").mightMatch(line, 0, line.length));
+    }
+
+    private RowFilter filter(final String expression)
+    {
+        return new RowFilter(Collections.singletonList(expression));
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.parser.RowParser;
+import com.ning.metrics.action.hdfs.writer.LocalFileSystemAccessProvider;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.skife.config.ConfigurationObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+public class TestSplitSequenceFileContentsIterator
+{
+    private static final int RECORDS = 5000;
+    private static final long SPLIT_SIZE = 1024;
+
+    private final String root = System.getProperty("java.io.tmpdir") + "/action-core-split-decoder-" + System.currentTimeMillis();
+
+    private FileSystem fs;
+    private Path blockCompressed;
+    private Path recordCompressed;
+
+    @BeforeClass(alwaysRun = true)
+    public void setup() throws Exception
+    {
+        fs = new LocalFileSystemAccessProvider().get().get();
+
+        blockCompressed = new Path(root, "block.seq");
+        recordCompressed = new Path(root, "record.seq");
+        writeSequenceFile(blockCompressed, SequenceFile.CompressionType.BLOCK);
+        writeSequenceFile(recordCompressed, SequenceFile.CompressionType.RECORD);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception
+    {
+        fs.delete(new Path(root), true);
+    }
+
+    @Test(groups = "fast")
+    public void testBlockCompressedSplitsMatchSequentialRead() throws Exception
+    {
+        testSplitsMatchSequentialRead(blockCompressed);
+    }
+
+    @Test(groups = "fast")
+    public void testRecordCompressedSplitsMatchSequentialRead() throws Exception
+    {
+        testSplitsMatchSequentialRead(recordCompressed);
+    }
+
+    @Test(groups = "fast")
+    public void testBlockCompressedSkipIsSequential() throws Exception
+    {
+        testSkipIsSequential(blockCompressed);
+    }
+
+    @Test(groups = "fast")
+    public void testRecordCompressedSkipIsSequential() throws Exception
+    {
+        testSkipIsSequential(recordCompressed);
+    }
+
+    @Test(groups = "fast", timeOut = 60000)
+    public void testSlowClientsDontStarveThePool() throws Exception
+    {
+        // A single worker thread for several files, each decoded a window of splits ahead of its client
+        final RowFileContentsIteratorFactory factory = createFactory(SPLIT_SIZE, 1, 4, 10);
+        final FileStatus status = fs.getFileStatus(recordCompressed);
+        final List<String> expected = readAll(createFactory(0, 1, 1, 10).build(fs, status, true));
+
+        final List<CloseableIterator<Row>> contents = new ArrayList<CloseableIterator<Row>>();
+        final List<List<String>> actual = new ArrayList<List<String>>();
+        for (int i = 0; i < 3; i++) {
+            final CloseableIterator<Row> content = factory.build(fs, status, true);
+            contents.add(content);
+            actual.add(new ArrayList<String>());
+
+            // Start decoding, without consuming the buffered rows
+            Assert.assertTrue(content.hasNext());
+            actual.get(i).add(content.next().toString());
+        }
+
+        // Consume the files in reverse order: the decoders of the first files must not hold on to the worker
+        for (int i = contents.size() - 1; i >= 0; i--) {
+            actual.get(i).addAll(readAll(contents.get(i)));
+            Assert.assertEquals(actual.get(i), expected);
+        }
+    }
+
+    @Test(groups = "fast", timeOut = 60000)
+    public void testUnreadableSplitFailsTheIterator() throws Exception
+    {
+        final Path path = new Path(root, "deleted.seq");
+        writeSequenceFile(path, SequenceFile.CompressionType.RECORD);
+
+        final RowFileContentsIteratorFactory factory = createFactory(SPLIT_SIZE, 2, 4, 10);
+        final CloseableIterator<Row> content = factory.build(fs, fs.getFileStatus(path), true);
+        // The reader of the first split is already open, the others can't be opened anymore
+        Assert.assertTrue(fs.delete(path, false));
+
+        final List<String> rows = new ArrayList<String>();
+        try {
+            while (content.hasNext()) {
+                rows.add(content.next().toString());
+            }
+            Assert.fail("Read " + rows.size() + " rows out of " + RECORDS);
+        }
+        catch (RowAccessException e) {
+            Assert.assertTrue(rows.size() < RECORDS);
+            for (int i = 0; i < rows.size(); i++) {
+                Assert.assertEquals(rows.get(i), value(i));
+            }
+        }
+
+        // Running decoders release their reader asynchronously
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (factory.getOpenReaders() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(factory.getOpenReaders(), 0);
+    }
+
+    private void testSplitsMatchSequentialRead(final Path path) throws IOException
+    {
+        final FileStatus status = fs.getFileStatus(path);
+        // Several splits per file
+        Assert.assertTrue(status.getLen() > 4 * SPLIT_SIZE);
+
+        final List<String> expected = readAll(createFactory(0, 1, 1, 10).build(fs, status, true));
+        Assert.assertEquals(expected.size(), RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            Assert.assertEquals(expected.get(i), value(i));
+        }
+
+        final RowFileContentsIteratorFactory factory = createFactory(SPLIT_SIZE, 2, 4, 10);
+        final CloseableIterator<Row> content = factory.build(fs, status, true);
+        Assert.assertTrue(content instanceof SplitSequenceFileContentsIterator);
+        Assert.assertEquals(readAll(content), expected);
+        Assert.assertEquals(factory.getOpenReaders(), 0);
+    }
+
+    private void testSkipIsSequential(final Path path) throws IOException
+    {
+        final FileStatus status = fs.getFileStatus(path);
+        final RowFileContentsIteratorFactory factory = createFactory(SPLIT_SIZE, 2, 4, 10);
+
+        final CloseableIterator<Row> content = factory.build(fs, status, true);
+        Assert.assertTrue(content instanceof SplitSequenceFileContentsIterator);
+        Assert.assertEquals(RowFileContentsIteratorFactory.skip(content, 1234), 1234);
+
+        // No split reader is opened: the rows come from the reader opened for the beginning of the file
+        Assert.assertTrue(content.hasNext());
+        Assert.assertEquals(content.next().toString(), value(1234));
+        Assert.assertEquals(factory.getOpenReaders(), 1);
+
+        final List<String> rest = readAll(content);
+        Assert.assertEquals(rest.size(), RECORDS - 1235);
+        Assert.assertEquals(rest.get(rest.size() - 1), value(RECORDS - 1));
+        Assert.assertEquals(factory.getOpenReaders(), 0);
+
+        // Skipping past the end
+        final CloseableIterator<Row> other = factory.build(fs, status, true);
+        Assert.assertEquals(RowFileContentsIteratorFactory.skip(other, RECORDS + 10), RECORDS);
+        Assert.assertFalse(other.hasNext());
+        other.close();
+        Assert.assertEquals(factory.getOpenReaders(), 0);
+    }
+
+    private RowFileContentsIteratorFactory createFactory(final long splitSize, final int threads, final int window, final int bufferRows)
+    {
+        final Properties properties = new Properties();
+        properties.setProperty("action.decoder.split.size", String.valueOf(splitSize));
+        properties.setProperty("action.decoder.split.threads", String.valueOf(threads));
+        properties.setProperty("action.decoder.split.window", String.valueOf(window));
+        properties.setProperty("action.decoder.buffer.rows", String.valueOf(bufferRows));
+        final ActionCoreConfig config = new ConfigurationObjectFactory(properties).build(ActionCoreConfig.class);
+
+        return new RowFileContentsIteratorFactory(new RowParser(config), null, new RowCountCache(config), config);
+    }
+
+    private List<String> readAll(final Iterator<Row> content)
+    {
+        final List<String> rows = new ArrayList<String>();
+        while (content.hasNext()) {
+            rows.add(content.next().toString());
+        }
+
+        return rows;
+    }
+
+    private String value(final int i)
+    {
+        return String.format("value-%05d", i);
+    }
+
+    private void writeSequenceFile(final Path path, final SequenceFile.CompressionType compressionType) throws IOException
+    {
+        final Configuration conf = new Configuration(fs.getConf());
+        // Small blocks, hence sync markers, for block-compressed files
+        conf.setInt("io.seqfile.compress.blocksize", 1000);
+
+        final SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, Text.class, Text.class, compressionType,
+            ReflectionUtils.newInstance(DefaultCodec.class, conf));
+        try {
+            final Text key = new Text();
+            final Text value = new Text();
+            for (int i = 0; i < RECORDS; i++) {
+                key.set(String.valueOf(i));
+                value.set(value(i));
+                writer.append(key, value);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.codec;
+
+import com.ning.compress.lzf.LZFEncoder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibInflater;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestDecompressedStreamFactory
+{
+    private static final byte[] DATA = createData();
+
+    @Test(groups = "fast")
+    public void testWrapStream() throws Exception
+    {
+        Assert.assertEquals(read(DecompressedStreamFactory.wrapStream("gz", compress(GzipCodec.class, DATA))), DATA);
+        Assert.assertEquals(read(DecompressedStreamFactory.wrapStream("bz2", compress(BZip2Codec.class, DATA))), DATA);
+        Assert.assertEquals(read(DecompressedStreamFactory.wrapStream("deflate", compress(DefaultCodec.class, DATA))), DATA);
+        Assert.assertEquals(read(DecompressedStreamFactory.wrapStream("lzf", new ByteArrayInputStream(LZFEncoder.encode(DATA)))), DATA);
+    }
+
+    @Test(groups = "fast")
+    public void testWrapStreamUnknownSuffix() throws Exception
+    {
+        Assert.assertNull(DecompressedStreamFactory.wrapStream("txt", new ByteArrayInputStream(DATA)));
+        Assert.assertNull(DecompressedStreamFactory.wrapStream("", new ByteArrayInputStream(DATA)));
+    }
+
+    @Test(groups = "fast")
+    public void testDetectStream() throws Exception
+    {
+        Assert.assertEquals(read(DecompressedStreamFactory.detectStream(compress(GzipCodec.class, DATA))), DATA);
+        Assert.assertEquals(read(DecompressedStreamFactory.detectStream(compress(BZip2Codec.class, DATA))), DATA);
+        Assert.assertEquals(read(DecompressedStreamFactory.detectStream(compress(DefaultCodec.class, DATA))), DATA);
+        Assert.assertEquals(read(DecompressedStreamFactory.detectStream(new ByteArrayInputStream(LZFEncoder.encode(DATA)))), DATA);
+    }
+
+    @Test(groups = "fast")
+    public void testDetectStreamPlainText() throws Exception
+    {
+        assertUnchanged(DATA);
+        // Looks like a zlib header (0x78 0x5E)
+        assertUnchanged("x^2 + y^2 = z^2\n".getBytes("UTF-8"));
+        // Shorter than the magic numbers
+        assertUnchanged("x".getBytes("UTF-8"));
+        assertUnchanged("BZ".getBytes("UTF-8"));
+        assertUnchanged(new byte[0]);
+    }
+
+    @Test(groups = "fast")
+    public void testDecompressorsAreReturnedToThePool() throws Exception
+    {
+        final Configuration conf = new Configuration();
+        final CountingCodec codec = ReflectionUtils.newInstance(CountingCodec.class, conf);
+        DecompressedStreamFactory.register("counted", new HadoopStreamCodec(codec));
+
+        final byte[] first = "first file\n".getBytes("UTF-8");
+        final byte[] second = "second file\n".getBytes("UTF-8");
+
+        // Closing twice must not return the decompressor twice
+        final InputStream stream = DecompressedStreamFactory.wrapStream("counted", compress(CountingCodec.class, first));
+        Assert.assertEquals(read(stream), first);
+        stream.close();
+        final int created = codec.getCreatedDecompressors();
+
+        // The decompressor of the closed stream is reused...
+        final InputStream firstStream = DecompressedStreamFactory.wrapStream("counted", compress(CountingCodec.class, first));
+        Assert.assertEquals(codec.getCreatedDecompressors(), created);
+        // ...but only by one stream at a time
+        final InputStream secondStream = DecompressedStreamFactory.wrapStream("counted", compress(CountingCodec.class, second));
+        Assert.assertEquals(codec.getCreatedDecompressors(), created + 1);
+
+        Assert.assertEquals(read(firstStream), first);
+        Assert.assertEquals(read(secondStream), second);
+    }
+
+    // Pooled on its own, away from the decompressors of the other deflate tests
+    public static class CountingInflater extends BuiltInZlibInflater
+    {
+    }
+
+    public static class CountingCodec extends DefaultCodec
+    {
+        private final AtomicInteger createdDecompressors = new AtomicInteger(0);
+
+        @Override
+        public Class<? extends Decompressor> getDecompressorType()
+        {
+            return CountingInflater.class;
+        }
+
+        @Override
+        public Decompressor createDecompressor()
+        {
+            createdDecompressors.incrementAndGet();
+            return new CountingInflater();
+        }
+
+        public int getCreatedDecompressors()
+        {
+            return createdDecompressors.get();
+        }
+    }
+
+    private void assertUnchanged(final byte[] data) throws IOException
+    {
+        Assert.assertEquals(read(DecompressedStreamFactory.detectStream(new ByteArrayInputStream(data))), data);
+    }
+
+    private static byte[] createData()
+    {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append("line ").append(i).append('\t').append(i * 31 % 1000).append('\n');
+        }
+        try {
+            return builder.toString().getBytes("UTF-8");
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private InputStream compress(final Class<? extends CompressionCodec> codecClass, final byte[] data) throws IOException
+    {
+        final CompressionCodec codec = ReflectionUtils.newInstance(codecClass, new Configuration());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CompressionOutputStream compressedStream = codec.createOutputStream(out);
+        compressedStream.write(data);
+        compressedStream.close();
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private byte[] read(final InputStream stream) throws IOException
+    {
+        Assert.assertNotNull(stream);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try {
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            stream.close();
+        }
+        return out.toByteArray();
+    }
+}
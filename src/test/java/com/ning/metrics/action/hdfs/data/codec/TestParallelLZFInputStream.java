@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.codec;
+
+import com.ning.compress.lzf.LZFEncoder;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestParallelLZFInputStream
+{
+    @Test(groups = "fast")
+    public void testReadMultipleChunks() throws Exception
+    {
+        final byte[] data = createData();
+
+        // More chunks than buffers in the ring
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Assert.assertEquals(read(new ParallelLZFInputStream(new ByteArrayInputStream(LZFEncoder.encode(data)), executor, 3)), data);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testReadOnTheReadingThread() throws Exception
+    {
+        final byte[] data = createData();
+        Assert.assertEquals(read(new ParallelLZFInputStream(new ByteArrayInputStream(LZFEncoder.encode(data)))), data);
+    }
+
+    @Test(groups = "fast")
+    public void testTruncatedStream() throws Exception
+    {
+        final byte[] compressed = LZFEncoder.encode(createData());
+        final byte[] truncated = new byte[compressed.length - 10];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+
+        try {
+            read(new ParallelLZFInputStream(new ByteArrayInputStream(truncated)));
+            Assert.fail("The stream is truncated");
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testCorruptChunk() throws Exception
+    {
+        // Back reference before the start of the chunk
+        final byte[] chunk = new byte[]{(byte) 0x20, 0x10};
+        try {
+            ParallelLZFInputStream.decodeChunk(chunk, chunk.length, new byte[10], 3);
+            Assert.fail("The chunk is corrupted");
+        }
+        catch (IOException ignored) {
+        }
+
+        // Literal run longer than the data
+        final byte[] literals = new byte[]{0x05, 'a', 'b'};
+        try {
+            ParallelLZFInputStream.decodeChunk(literals, literals.length, new byte[10], 6);
+            Assert.fail("The chunk is truncated");
+        }
+        catch (IOException ignored) {
+        }
+
+        // Overlapping back reference: "ab" then 4 bytes from 2 bytes back
+        final byte[] overlapping = new byte[]{0x01, 'a', 'b', (byte) 0x40, 0x01};
+        final byte[] out = new byte[10];
+        Assert.assertEquals(ParallelLZFInputStream.decodeChunk(overlapping, overlapping.length, out, 6), 6);
+        Assert.assertEquals(new String(out, 0, 6, "UTF-8"), "ababab");
+    }
+
+    @Test(groups = "fast")
+    public void testEmptyStream() throws Exception
+    {
+        final InputStream stream = new ParallelLZFInputStream(new ByteArrayInputStream(new byte[0]));
+        Assert.assertEquals(stream.read(), -1);
+        stream.close();
+    }
+
+    private byte[] createData()
+    {
+        // Several 64KB chunks, some of them not compressible (stored as is)
+        final byte[] data = new byte[1024 * 1024];
+        final Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i / 100000) % 2 == 0 ? (byte) (i % 7) : (byte) random.nextInt();
+        }
+        return data;
+    }
+
+    private byte[] read(final InputStream stream) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[10000];
+        try {
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            stream.close();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.data.parser;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.Row;
+import com.ning.metrics.action.hdfs.data.RowAccessException;
+import com.ning.metrics.action.hdfs.data.RowBatch;
+import com.ning.metrics.action.hdfs.data.RowText;
+import com.ning.metrics.action.hdfs.data.schema.DynamicColumnKey;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.schema.Registrar;
+
+import org.apache.hadoop.io.Text;
+import org.skife.config.ConfigurationObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+public class TestRowParser
+{
+    /**
+     * Decode Strings into a single upper case column
+     */
+    public static class UpperCaseRowSerializer implements RowSerializer
+    {
+        @Override
+        public boolean accept(final Object o)
+        {
+            return o instanceof String;
+        }
+
+        @Override
+        public void toRows(final Registrar r, final Object o, final RowBatch rows) throws RowAccessException
+        {
+            rows.add(new RowText(new RowSchema("upper", new DynamicColumnKey("value")), o.toString().toUpperCase()));
+        }
+    }
+
+    /**
+     * Decode Strings into a single lower case column
+     */
+    public static class LowerCaseRowSerializer implements RowSerializer
+    {
+        @Override
+        public boolean accept(final Object o)
+        {
+            return o instanceof String;
+        }
+
+        @Override
+        public void toRows(final Registrar r, final Object o, final RowBatch rows) throws RowAccessException
+        {
+            rows.add(new RowText(new RowSchema("lower", new DynamicColumnKey("value")), o.toString().toLowerCase()));
+        }
+    }
+
+    /**
+     * Only accepts some Strings: shows the choice is cached per class
+     */
+    public static class BangRowSerializer extends UpperCaseRowSerializer
+    {
+        @Override
+        public boolean accept(final Object o)
+        {
+            return o instanceof String && ((String) o).startsWith("!");
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testDiscoveredSerializers() throws Exception
+    {
+        final RowParser parser = createParser("");
+
+        // StringRowSerializer
+        final Row textRow = parse(parser, "a\tb");
+        Assert.assertEquals(textRow.getSchema().getFieldNameByPosition(0), "col-0");
+        Assert.assertEquals(textRow.getSchema().getFieldNameByPosition(1), "col-1");
+        Assert.assertEquals(textRow.toString("\t"), "a\tb");
+
+        // WritableRowSerializer
+        Assert.assertEquals(parse(parser, new Text("hello")).toString(), "hello");
+    }
+
+    @Test(groups = "fast")
+    public void testConfiguredSerializersFirst() throws Exception
+    {
+        // Configured serializers are tried before the discovered ones (StringRowSerializer), in the configured order
+        Assert.assertEquals(parse(createParser(UpperCaseRowSerializer.class.getName()), "Hello").toString(), "HELLO");
+        Assert.assertEquals(parse(createParser(LowerCaseRowSerializer.class.getName() + ", " + UpperCaseRowSerializer.class.getName()), "Hello").toString(), "hello");
+        Assert.assertEquals(parse(createParser(UpperCaseRowSerializer.class.getName() + "," + LowerCaseRowSerializer.class.getName()), "Hello").toString(), "HELLO");
+
+        // Unknown classes are ignored
+        Assert.assertEquals(parse(createParser("com.example.MissingRowSerializer," + LowerCaseRowSerializer.class.getName()), "Hello").toString(), "hello");
+        Assert.assertEquals(parse(createParser("com.example.MissingRowSerializer"), "Hello").toString(), "Hello");
+    }
+
+    @Test(groups = "fast")
+    public void testChoiceIsCachedPerClass() throws Exception
+    {
+        final RowParser parser = createParser(BangRowSerializer.class.getName());
+
+        Assert.assertEquals(parse(parser, "!hello").toString(), "!HELLO");
+        // Not accepted by BangRowSerializer, but Strings are dispatched to it from now on
+        Assert.assertEquals(parse(parser, "world").toString(), "WORLD");
+
+        // The other way around
+        final RowParser otherParser = createParser(BangRowSerializer.class.getName());
+        Assert.assertEquals(parse(otherParser, "world").toString(), "world");
+        Assert.assertEquals(parse(otherParser, "!hello").toString(), "!hello");
+    }
+
+    @Test(groups = "fast", expectedExceptions = RowAccessException.class)
+    public void testNullValue() throws Exception
+    {
+        createParser("").valueToRows(null, null, new RowBatch());
+    }
+
+    @Test(groups = "fast", expectedExceptions = RowAccessException.class)
+    public void testUnknownType() throws Exception
+    {
+        createParser("").valueToRows(null, new Object(), new RowBatch());
+    }
+
+    private RowParser createParser(final String rowSerializations)
+    {
+        final Properties properties = new Properties();
+        properties.setProperty("action.hadoop.io.row.serializations", rowSerializations);
+        final ActionCoreConfig config = new ConfigurationObjectFactory(properties).build(ActionCoreConfig.class);
+
+        return new RowParser(config);
+    }
+
+    private Row parse(final RowParser parser, final Object value)
+    {
+        final RowBatch rows = new RowBatch();
+        parser.valueToRows(null, value, rows);
+        Assert.assertEquals(rows.size(), 1);
+
+        return rows.iterator().next();
+    }
+}
@@ -16,8 +16,10 @@
 
 package com.ning.metrics.action.hdfs.data.parser;
 
+import com.ning.metrics.action.hdfs.data.RowBatch;
 import com.ning.metrics.action.hdfs.data.RowSmile;
-import com.ning.metrics.action.hdfs.data.Rows;
+import com.ning.metrics.action.schema.ProjectingRegistrar;
+import com.ning.metrics.action.schema.ProjectionPlan;
 import com.ning.metrics.action.schema.Registrar;
 import com.ning.metrics.goodwill.access.GoodwillSchemaField;
 import com.ning.metrics.serialization.event.SmileEnvelopeEvent;
@@ -34,6 +36,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -65,6 +68,12 @@ public class TestSmileRowSerializer
 
             return map;
         }
+
+        @Override
+        public ProjectionPlan getProjectionPlan(String type)
+        {
+            return new ProjectionPlan(type, getSchema(type).values());
+        }
     }
 
     private class NullRegistrar implements Registrar
@@ -86,6 +95,12 @@ public class TestSmileRowSerializer
         {
             return null;
         }
+
+        @Override
+        public ProjectionPlan getProjectionPlan(String type)
+        {
+            return null;
+        }
     }
 
     @Test(groups = "fast")
@@ -96,7 +111,8 @@ public class TestSmileRowSerializer
         final InputStream stream = new ByteArrayInputStream(out.toByteArray());
 
         final SmileRowSerializer serializer = new SmileRowSerializer();
-        final Rows rows = serializer.toRows(new NullRegistrar(), stream);
+        final RowBatch rows = new RowBatch();
+        serializer.toRows(new NullRegistrar(), stream, rows);
         final RowSmile firstRow = (RowSmile) rows.iterator().next();
 
         final ImmutableMap<String, ValueNode> actual = firstRow.toMap();
@@ -116,7 +132,8 @@ public class TestSmileRowSerializer
         final InputStream stream = new ByteArrayInputStream(out.toByteArray());
 
         final SmileRowSerializer serializer = new SmileRowSerializer();
-        final Rows rows = serializer.toRows(new SomeRegistrar(), stream);
+        final RowBatch rows = new RowBatch();
+        serializer.toRows(new SomeRegistrar(), stream, rows);
         final RowSmile firstRow = (RowSmile) rows.iterator().next();
 
         final ImmutableMap<String, ValueNode> actual = firstRow.toMap();
@@ -127,6 +144,42 @@ public class TestSmileRowSerializer
         Assert.assertEquals(actual.get("field2"), eventMap.get("field2"));
     }
 
+    @Test(groups = "fast")
+    public void testToRowsWithProjection() throws Exception
+    {
+        final Map<String, Object> eventMap = createEventMap();
+        final ByteArrayOutputStream out = createSmileEnvelopePayload(eventMap);
+        final InputStream stream = new ByteArrayInputStream(out.toByteArray());
+
+        final SmileRowSerializer serializer = new SmileRowSerializer();
+        final RowBatch rows = new RowBatch();
+        serializer.toRows(new ProjectingRegistrar(new SomeRegistrar(), Arrays.asList("field2", "unknown", "field1")), stream, rows);
+        final RowSmile firstRow = (RowSmile) rows.iterator().next();
+
+        final ImmutableMap<String, ValueNode> actual = firstRow.toMap();
+        // Only the projected fields of the schema are outputted, in the projection order
+        Assert.assertEquals(actual.keySet().asList(), Arrays.asList("field2", "field1"));
+        Assert.assertEquals(actual.get("field1"), eventMap.get("field1"));
+        Assert.assertEquals(actual.get("field2"), eventMap.get("field2"));
+    }
+
+    @Test(groups = "fast")
+    public void testToRowsWithProjectionWithoutRegistrar() throws Exception
+    {
+        final Map<String, Object> eventMap = createEventMap();
+        final ByteArrayOutputStream out = createSmileEnvelopePayload(eventMap);
+        final InputStream stream = new ByteArrayInputStream(out.toByteArray());
+
+        final SmileRowSerializer serializer = new SmileRowSerializer();
+        final RowBatch rows = new RowBatch();
+        serializer.toRows(new ProjectingRegistrar(new NullRegistrar(), Arrays.asList("field1")), stream, rows);
+        final RowSmile firstRow = (RowSmile) rows.iterator().next();
+
+        final ImmutableMap<String, ValueNode> actual = firstRow.toMap();
+        Assert.assertEquals(actual.keySet().asList(), Arrays.asList("field1"));
+        Assert.assertEquals(actual.get("field1"), eventMap.get("field1"));
+    }
+
     private ByteArrayOutputStream createSmileEnvelopePayload(final Map<String, Object> map) throws IOException
     {
         final SmileEnvelopeEventSerializer smileSerializer = new SmileEnvelopeEventSerializer(false);
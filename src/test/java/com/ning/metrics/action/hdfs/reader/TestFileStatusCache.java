@@ -0,0 +1,209 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.hdfs.writer.LocalFileSystemAccessProvider;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class TestFileStatusCache
+{
+    private final String root = System.getProperty("java.io.tmpdir") + "/action-core-file-status-cache-" + System.currentTimeMillis();
+
+    private FileSystem fs;
+
+    @BeforeClass(alwaysRun = true)
+    public void setup() throws Exception
+    {
+        fs = new LocalFileSystemAccessProvider().get().get();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception
+    {
+        fs.delete(new Path(root), true);
+    }
+
+    @Test(groups = "fast")
+    public void testHitWithinTTL() throws Exception
+    {
+        final File dir = createDirectory("hit", "a", "b");
+        final Path path = new Path(dir.getPath());
+        final FileStatusCache cache = new FileStatusCache(1000, 60000, 60000);
+
+        final FileStatus[] listing = cache.listStatus(fs, path);
+        Assert.assertEquals(listing.length, 2);
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getListingsSize(), 1);
+
+        // Within the revalidation interval, changes aren't seen
+        Assert.assertTrue(new File(dir, "c").createNewFile());
+        Assert.assertSame(cache.listStatus(fs, path), listing);
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getRevalidations(), 0);
+
+        // Single files
+        final Path file = new Path(new File(dir, "a").getPath());
+        final FileStatus fileStatus = cache.getFileStatus(fs, file);
+        Assert.assertSame(cache.getFileStatus(fs, file), fileStatus);
+        Assert.assertEquals(cache.getHits(), 2);
+        Assert.assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testRevalidateAfterMtimeChange() throws Exception
+    {
+        final File dir = createDirectory("revalidate", "a", "b");
+        final Path path = new Path(dir.getPath());
+        // Check the directory mtime on every lookup
+        final FileStatusCache cache = new FileStatusCache(1000, 60000, 0);
+
+        final FileStatus[] listing = cache.listStatus(fs, path);
+        Assert.assertEquals(listing.length, 2);
+        Assert.assertEquals(cache.getMisses(), 1);
+
+        // Unchanged directory: the cached listing is served after the mtime check
+        Assert.assertSame(cache.listStatus(fs, path), listing);
+        Assert.assertEquals(cache.getRevalidations(), 1);
+        Assert.assertEquals(cache.getInvalidations(), 0);
+        Assert.assertEquals(cache.getMisses(), 1);
+
+        // mtime granularity may be coarser than the test: move it explicitly
+        final long modificationTime = fs.getFileStatus(path).getModificationTime();
+        Assert.assertTrue(new File(dir, "c").createNewFile());
+        Assert.assertTrue(dir.setLastModified(modificationTime + 60000));
+
+        final FileStatus[] newListing = cache.listStatus(fs, path);
+        Assert.assertEquals(newListing.length, 3);
+        Assert.assertEquals(cache.getRevalidations(), 1);
+        Assert.assertEquals(cache.getInvalidations(), 1);
+        Assert.assertEquals(cache.getMisses(), 2);
+
+        // Deleted directory
+        Assert.assertTrue(fs.delete(path, true));
+        Assert.assertNull(cache.listStatus(fs, path));
+        Assert.assertEquals(cache.getInvalidations(), 2);
+        Assert.assertEquals(cache.getListingsSize(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testInvalidateAll() throws Exception
+    {
+        final File dir = createDirectory("invalidate", "a");
+        final Path path = new Path(dir.getPath());
+        final Path file = new Path(new File(dir, "a").getPath());
+        final FileStatusCache cache = new FileStatusCache(1000, 60000, 60000);
+
+        final FileStatus[] listing = cache.listStatus(fs, path);
+        final FileStatus fileStatus = cache.getFileStatus(fs, file);
+        Assert.assertEquals(cache.getMisses(), 2);
+
+        cache.invalidateAll();
+        Assert.assertEquals(cache.getListingsSize(), 0);
+
+        Assert.assertTrue(new File(dir, "b").createNewFile());
+        final FileStatus[] newListing = cache.listStatus(fs, path);
+        Assert.assertNotSame(newListing, listing);
+        Assert.assertEquals(newListing.length, 2);
+        Assert.assertNotSame(cache.getFileStatus(fs, file), fileStatus);
+        Assert.assertEquals(cache.getHits(), 0);
+        Assert.assertEquals(cache.getMisses(), 4);
+    }
+
+    @Test(groups = "fast")
+    public void testInvalidatePath() throws Exception
+    {
+        final File dir = createDirectory("invalidate-path", "a");
+        final File subDir = new File(dir, "sub");
+        Assert.assertTrue(subDir.mkdir());
+        Assert.assertTrue(new File(subDir, "b").createNewFile());
+
+        final Path path = new Path(dir.getPath());
+        final Path file = new Path(new File(dir, "a").getPath());
+        final Path subPath = new Path(subDir.getPath());
+        final FileStatusCache cache = new FileStatusCache(1000, 60000, 60000);
+
+        Assert.assertEquals(cache.getFileStatus(fs, file).getLen(), 0);
+        Assert.assertEquals(cache.listStatus(fs, path).length, 2);
+        Assert.assertEquals(cache.listStatus(fs, subPath).length, 1);
+
+        // Overwritten file
+        final OutputStream out = new FileOutputStream(new File(dir, "a"));
+        try {
+            out.write("hello".getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+        Assert.assertEquals(cache.getFileStatus(fs, file).getLen(), 0);
+        cache.invalidate(fs, file);
+        Assert.assertEquals(cache.getFileStatus(fs, file).getLen(), 5);
+        // The listing of the parent is refreshed as well
+        for (final FileStatus status : cache.listStatus(fs, path)) {
+            if (status.getPath().getName().equals("a")) {
+                Assert.assertEquals(status.getLen(), 5);
+            }
+        }
+        // Not the one of other directories
+        final long misses = cache.getMisses();
+        Assert.assertEquals(cache.listStatus(fs, subPath).length, 1);
+        Assert.assertEquals(cache.getMisses(), misses);
+
+        // Deleted directory: its listing and the ones of its subdirectories are dropped
+        Assert.assertTrue(fs.delete(path, true));
+        cache.invalidate(fs, path);
+        Assert.assertNull(cache.listStatus(fs, subPath));
+        Assert.assertNull(cache.listStatus(fs, path));
+        Assert.assertEquals(cache.getListingsSize(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testDisabled() throws Exception
+    {
+        final File dir = createDirectory("disabled", "a");
+        final Path path = new Path(dir.getPath());
+        final FileStatusCache cache = new FileStatusCache(0, 60000, 60000);
+
+        Assert.assertEquals(cache.listStatus(fs, path).length, 1);
+        Assert.assertTrue(new File(dir, "b").createNewFile());
+        Assert.assertEquals(cache.listStatus(fs, path).length, 2);
+        Assert.assertEquals(cache.getHits() + cache.getMisses(), 0);
+    }
+
+    private File createDirectory(final String name, final String... files) throws IOException
+    {
+        final File dir = new File(root, name);
+        Assert.assertTrue(dir.mkdirs());
+        for (final String file : files) {
+            Assert.assertTrue(new File(dir, file).createNewFile());
+        }
+
+        return dir;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.hdfs.writer.LocalFileSystemAccessProvider;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestHdfsCrawler
+{
+    private final String root = System.getProperty("java.io.tmpdir") + "/action-core-hdfs-crawler-" + System.currentTimeMillis();
+
+    private FileSystem fs;
+    private ExecutorService executor;
+
+    @BeforeClass(alwaysRun = true)
+    public void setup() throws Exception
+    {
+        fs = new LocalFileSystemAccessProvider().get().get();
+        executor = Executors.newFixedThreadPool(4);
+
+        // year/month/day/hour layout
+        for (int month = 1; month <= 3; month++) {
+            for (int day = 1; day <= 4; day++) {
+                for (int hour = 0; hour < 3; hour++) {
+                    final File dir = new File(String.format("%s/2012/%02d/%02d/%02d", root, month, day, hour));
+                    Assert.assertTrue(dir.mkdirs());
+                    Assert.assertTrue(new File(dir, "events.txt").createNewFile());
+                }
+            }
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+        fs.delete(new Path(root), true);
+    }
+
+    @Test(groups = "fast")
+    public void testCrawlPreservesOrdering() throws Exception
+    {
+        final Path path = new Path(root);
+        final List<HdfsEntry> expected = new HdfsListing(fs, path, true, null, true).getEntries();
+        // Concurrency lower than the fan-out to exercise the per-request cap
+        final HdfsCrawler crawler = new HdfsCrawler(new FileStatusCache(1000, 60000, 1000), executor, 2);
+        final List<HdfsEntry> actual = new HdfsListing(fs, path, true, null, true, crawler).getEntries();
+
+        // 1 year, 3 months, 12 days, 36 hours and 36 files
+        Assert.assertEquals(actual.size(), 88);
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i).getPath(), expected.get(i).getPath());
+            Assert.assertEquals(actual.get(i).isDirectory(), expected.get(i).isDirectory());
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testStreamingListing() throws Exception
+    {
+        final Path path = new Path(root);
+        final List<HdfsEntry> expected = new HdfsListing(fs, path, true, null, true).getEntries();
+        final HdfsCrawler crawler = new HdfsCrawler(new FileStatusCache(1000, 60000, 1000), executor, 2);
+        final HdfsListing listing = new HdfsListing(fs, path, true, null, true, crawler, true);
+
+        final Iterator<HdfsEntry> entries = listing.streamEntries();
+        for (final HdfsEntry entry : expected) {
+            Assert.assertTrue(entries.hasNext());
+            Assert.assertEquals(entries.next().getPath(), entry.getPath());
+        }
+        Assert.assertFalse(entries.hasNext());
+
+        // Entries are not kept around in streaming mode
+        try {
+            listing.streamEntries();
+            Assert.fail();
+        }
+        catch (IllegalStateException ignored) {
+        }
+    }
+}
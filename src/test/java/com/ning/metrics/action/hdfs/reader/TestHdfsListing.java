@@ -0,0 +1,452 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.CloseableIterator;
+import com.ning.metrics.action.hdfs.data.Row;
+import com.ning.metrics.action.hdfs.data.RowCountCache;
+import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+import com.ning.metrics.action.hdfs.data.RowFilter;
+import com.ning.metrics.action.hdfs.data.RowText;
+import com.ning.metrics.action.hdfs.data.parser.RowParser;
+import com.ning.metrics.action.hdfs.data.schema.RowSchema;
+import com.ning.metrics.action.hdfs.writer.LocalFileSystemAccessProvider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.skife.config.ConfigurationObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class TestHdfsListing
+{
+    private final String root = System.getProperty("java.io.tmpdir") + "/action-core-hdfs-listing-" + System.currentTimeMillis();
+
+    private final String textRoot = root + "/text";
+    private final String sequenceRoot = root + "/sequence";
+
+    // Tab separated lines, by file name
+    private final Map<String, List<String>> files = new HashMap<String, List<String>>();
+    // Number of records, by file name
+    private final Map<String, Integer> sequenceFiles = new HashMap<String, Integer>();
+
+    private FileSystem fs;
+    private ActionCoreConfig config;
+    private RowFileContentsIteratorFactory factory;
+
+    @BeforeClass(alwaysRun = true)
+    public void setup() throws Exception
+    {
+        fs = new LocalFileSystemAccessProvider().get().get();
+
+        final Properties properties = new Properties();
+        // Decode on the calling thread
+        properties.setProperty("action.decoder.split.size", "0");
+        config = new ConfigurationObjectFactory(properties).build(ActionCoreConfig.class);
+        factory = new RowFileContentsIteratorFactory(new RowParser(config), null, new RowCountCache(config), config);
+
+        files.put("a.txt", Arrays.asList("a1\tx", "a2\ty", "a3\tz"));
+        files.put("b.txt", Arrays.asList("b1", "b2"));
+
+        Assert.assertTrue(new File(textRoot).mkdirs());
+        for (final Map.Entry<String, List<String>> file : files.entrySet()) {
+            final OutputStream out = new FileOutputStream(new File(textRoot, file.getKey()));
+            try {
+                for (final String line : file.getValue()) {
+                    out.write((line + "\n").getBytes("UTF-8"));
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        // Raw records are skipped with nextRawKey for block-compressed files, nextRaw otherwise
+        sequenceFiles.put("block.seq", 5);
+        sequenceFiles.put("record.seq", 7);
+        sequenceFiles.put("none.seq", 4);
+        writeSequenceFile(new Path(sequenceRoot, "block.seq"), SequenceFile.CompressionType.BLOCK, 5);
+        writeSequenceFile(new Path(sequenceRoot, "record.seq"), SequenceFile.CompressionType.RECORD, 7);
+        writeSequenceFile(new Path(sequenceRoot, "none.seq"), SequenceFile.CompressionType.NONE, 4);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception
+    {
+        fs.delete(new Path(root), true);
+    }
+
+    @Test(groups = "fast")
+    public void testToBinary() throws Exception
+    {
+        final HdfsListing listing = new HdfsListing(fs, new Path(textRoot), false, factory, false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        listing.toBinary(out, true);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        final Map<String, List<String>> actual = new HashMap<String, List<String>>();
+        List<String> lines = null;
+        RowSchema schema = null;
+        byte tag;
+        while ((tag = in.readByte()) != HdfsListing.BINARY_END) {
+            if (tag == HdfsListing.BINARY_ENTRY) {
+                lines = new ArrayList<String>();
+                actual.put(new Path(in.readUTF()).getName(), lines);
+            }
+            else if (tag == HdfsListing.BINARY_SCHEMA) {
+                Assert.assertEquals(in.readUTF(), RowText.class.getName());
+                schema = new RowSchema("Text");
+                schema.readFields(in);
+            }
+            else if (tag == HdfsListing.BINARY_ROW) {
+                Assert.assertNotNull(lines);
+                Assert.assertNotNull(schema);
+                lines.add(readTextRow(in, schema));
+            }
+            else {
+                Assert.fail("Unexpected tag " + tag);
+            }
+        }
+        // Nothing after the end of the listing
+        Assert.assertEquals(in.read(), -1);
+
+        Assert.assertEquals(actual, files);
+    }
+
+    @Test(groups = "fast")
+    public void testToSmile() throws Exception
+    {
+        final HdfsListing listing = new HdfsListing(fs, new Path(textRoot), false, factory, false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        listing.toSmile(out, true);
+
+        final JsonNode json = new ObjectMapper(new SmileFactory()).readTree(out.toByteArray());
+        Assert.assertEquals(json.get(HdfsListing.JSON_LISTING_PATH).asText(), new Path(textRoot).toUri().getPath());
+
+        final JsonNode entries = json.get(HdfsListing.JSON_LISTING_ENTRIES);
+        Assert.assertEquals(entries.size(), files.size());
+        for (final JsonNode entry : entries) {
+            final List<String> lines = files.get(new Path(entry.get(HdfsEntry.JSON_ENTRY_PATH).asText()).getName());
+            final JsonNode content = entry.get(HdfsEntry.JSON_ENTRY_CONTENT);
+            Assert.assertEquals(content.size(), lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                Assert.assertEquals(content.get(i).get("col-0").asText(), lines.get(i).split("\t")[0]);
+            }
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testToNdjson() throws Exception
+    {
+        final HdfsListing listing = new HdfsListing(fs, new Path(textRoot), false, factory, false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(listing.toNdjson(out, true, 0, -1, false), 5);
+
+        // In listing order
+        final List<String> expected = new ArrayList<String>();
+        for (final HdfsEntry entry : listing.getEntries()) {
+            for (final String line : files.get(new Path(entry.getPath()).getName())) {
+                expected.add(line.split("\t")[0]);
+            }
+        }
+
+        final List<JsonNode> rows = readNdjson(out);
+        Assert.assertEquals(rows.size(), expected.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Assert.assertNull(rows.get(i).get(HdfsListing.NDJSON_PATH));
+            Assert.assertEquals(rows.get(i).get("col-0").asText(), expected.get(i));
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testToNdjsonWithPath() throws Exception
+    {
+        final HdfsListing listing = new HdfsListing(fs, new Path(textRoot), false, factory, false);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        listing.toNdjson(out, true, 0, -1, true);
+
+        final Map<String, List<String>> actual = new HashMap<String, List<String>>();
+        for (final JsonNode row : readNdjson(out)) {
+            final String name = new Path(row.get(HdfsListing.NDJSON_PATH).asText()).getName();
+            if (actual.get(name) == null) {
+                actual.put(name, new ArrayList<String>());
+            }
+            actual.get(name).add(row.get("col-0").asText());
+        }
+
+        Assert.assertEquals(actual.size(), files.size());
+        for (final Map.Entry<String, List<String>> file : files.entrySet()) {
+            final List<String> lines = actual.get(file.getKey());
+            Assert.assertEquals(lines.size(), file.getValue().size());
+            for (int i = 0; i < lines.size(); i++) {
+                Assert.assertEquals(lines.get(i), file.getValue().get(i).split("\t")[0]);
+            }
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testToNdjsonRange() throws Exception
+    {
+        final List<String> all = textColumns(new HdfsListing(fs, new Path(textRoot), false, factory, false), 0, -1);
+        final int total = all.size();
+
+        for (int offset = 0; offset <= total + 1; offset++) {
+            for (final int limit : new int[]{-1, 0, 1, 2, 4}) {
+                final List<String> expected = all.subList(Math.min(offset, total), limit < 0 ? total : Math.min(total, offset + limit));
+                final HdfsListing listing = new HdfsListing(fs, new Path(textRoot), false, factory, false);
+                Assert.assertEquals(textColumns(listing, offset, limit), expected, String.format("offset %d, limit %d", offset, limit));
+            }
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testToNdjsonClosesTheListingOnErrors() throws Exception
+    {
+        // Large enough for the export to fail while files are being decoded
+        final String largeRoot = root + "/large";
+        for (final String name : new String[]{"c.txt", "d.txt"}) {
+            final OutputStream out = new FileOutputStream(createFile(largeRoot, name));
+            try {
+                for (int i = 0; i < 5000; i++) {
+                    out.write(String.format("%s-%d\t%d\n", name, i, i).getBytes("UTF-8"));
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        final RowFileContentsIteratorFactory largeFactory = createFactory(new RowCountCache(1000));
+        final HdfsListing listing = new HdfsListing(fs, new Path(largeRoot), false, largeFactory, false);
+        // The client went away
+        final OutputStream disconnected = new OutputStream()
+        {
+            @Override
+            public void write(final int b) throws IOException
+            {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        try {
+            listing.toNdjson(disconnected, true, 0, -1, true);
+            Assert.fail("The export should have failed");
+        }
+        catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Broken pipe");
+        }
+        Assert.assertEquals(largeFactory.getOpenReaders(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testStreamContentsRange() throws Exception
+    {
+        final List<String> rows = readSequenceFiles(createFactory(new RowCountCache(1000)), 0, -1);
+        final int total = rows.size();
+        Assert.assertEquals(total, 16);
+
+        // Every offset: inside, at and past the file boundaries
+        for (int offset = 0; offset <= total + 2; offset++) {
+            for (final int limit : new int[]{-1, 0, 1, 3, 6}) {
+                final List<String> expected = rows.subList(Math.min(offset, total), limit < 0 ? total : Math.min(total, offset + limit));
+
+                // Cold row counts: files are opened and records skipped
+                final RowCountCache coldCache = new RowCountCache(1000);
+                Assert.assertEquals(readSequenceFiles(createFactory(coldCache), offset, limit), expected, String.format("offset %d, limit %d", offset, limit));
+                Assert.assertEquals(coldCache.getHits(), 0);
+
+                // Cached row counts: files before the offset are skipped without being opened
+                final RowCountCache cachedCache = new RowCountCache(1000);
+                final RowFileContentsIteratorFactory cachedFactory = createFactory(cachedCache);
+                readSequenceFiles(cachedFactory, 0, -1);
+                Assert.assertEquals(cachedCache.getSize(), sequenceFiles.size());
+                Assert.assertEquals(readSequenceFiles(cachedFactory, offset, limit), expected, String.format("offset %d, limit %d (cached)", offset, limit));
+                Assert.assertEquals(cachedFactory.getOpenReaders(), 0);
+            }
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testRowCountsAreCached() throws Exception
+    {
+        final RowCountCache cache = new RowCountCache(1000);
+        final RowFileContentsIteratorFactory cachedFactory = createFactory(cache);
+        final HdfsListing listing = new HdfsListing(fs, new Path(sequenceRoot), true, cachedFactory, false);
+        final List<HdfsEntry> entries = listing.getEntries();
+
+        // Partially read files are not counted
+        Assert.assertEquals(readSequenceFiles(cachedFactory, 0, 1).size(), 1);
+        Assert.assertEquals(cache.getSize(), 0);
+
+        // Files read until the end are, including when the end was reached by skipping records
+        final int firstFileRows = sequenceFiles.get(new Path(entries.get(0).getPath()).getName());
+        Assert.assertEquals(readSequenceFiles(cachedFactory, firstFileRows, 1).size(), 1);
+        Assert.assertEquals(cache.getSize(), 1);
+        Assert.assertEquals(entries.get(0).getRowCount(), firstFileRows);
+        Assert.assertEquals(entries.get(1).getRowCount(), -1);
+
+        readSequenceFiles(cachedFactory, 0, -1);
+        Assert.assertEquals(cache.getSize(), sequenceFiles.size());
+        for (final HdfsEntry entry : entries) {
+            Assert.assertEquals(entry.getRowCount(), (long) sequenceFiles.get(new Path(entry.getPath()).getName()));
+        }
+
+        // Not for filtered reads
+        Assert.assertEquals(cachedFactory.filtered(new RowFilter(Arrays.asList("record=none.seq-0"))).getRowCount(fs.getFileStatus(new Path(sequenceRoot, "none.seq")), true), -1);
+    }
+
+    private RowFileContentsIteratorFactory createFactory(final RowCountCache rowCountCache)
+    {
+        return new RowFileContentsIteratorFactory(new RowParser(config), null, rowCountCache, config);
+    }
+
+    private List<String> readSequenceFiles(final RowFileContentsIteratorFactory factory, final long offset, final long limit) throws IOException
+    {
+        final HdfsListing listing = new HdfsListing(fs, new Path(sequenceRoot), true, factory, false);
+        final List<String> rows = new ArrayList<String>();
+
+        final CloseableIterator<HdfsEntryContent> contents = listing.streamContents(true, offset, limit);
+        try {
+            while (contents.hasNext()) {
+                final Iterator<Row> content = contents.next().getContent();
+                while (content.hasNext()) {
+                    rows.add(content.next().toString());
+                }
+            }
+        }
+        finally {
+            contents.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * First column of the rows of a text listing, exported as NDJSON
+     */
+    private List<String> textColumns(final HdfsListing listing, final long offset, final long limit) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long written = listing.toNdjson(out, true, offset, limit, false);
+
+        final List<String> columns = new ArrayList<String>();
+        for (final JsonNode row : readNdjson(out)) {
+            columns.add(row.get("col-0").asText());
+        }
+        Assert.assertEquals(columns.size(), written);
+        return columns;
+    }
+
+    private List<JsonNode> readNdjson(final ByteArrayOutputStream out) throws IOException
+    {
+        final List<JsonNode> rows = new ArrayList<JsonNode>();
+        final String ndjson = out.toString("UTF-8");
+        if (ndjson.isEmpty()) {
+            return rows;
+        }
+
+        // One object per line, each of them terminated
+        Assert.assertTrue(ndjson.endsWith("\n"));
+        final ObjectMapper mapper = new ObjectMapper();
+        for (final String line : ndjson.substring(0, ndjson.length() - 1).split("\n", -1)) {
+            final JsonNode row = mapper.readTree(line);
+            Assert.assertTrue(row.isObject(), line);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private File createFile(final String directory, final String name)
+    {
+        final File parent = new File(directory);
+        Assert.assertTrue(parent.isDirectory() || parent.mkdirs());
+        return new File(parent, name);
+    }
+
+    private void writeSequenceFile(final Path path, final SequenceFile.CompressionType compressionType, final int records) throws IOException
+    {
+        final SequenceFile.Writer writer = SequenceFile.createWriter(fs, fs.getConf(), path, Text.class, Text.class, compressionType,
+            ReflectionUtils.newInstance(DefaultCodec.class, fs.getConf()));
+        try {
+            for (int i = 0; i < records; i++) {
+                writer.append(new Text(String.valueOf(i)), new Text(String.format("%s-%d", path.getName(), i)));
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Decode a BINARY_ROW record of a text file (see RowText#writeData) back into a tab separated line
+     */
+    private String readTextRow(final DataInputStream in, final RowSchema schema) throws IOException
+    {
+        final byte[] data = new byte[WritableUtils.readVInt(in)];
+        in.readFully(data);
+
+        final DataInputBuffer row = new DataInputBuffer();
+        row.reset(data, data.length);
+
+        final int columns = WritableUtils.readVInt(row);
+        Assert.assertEquals(schema.getNumBaseCols(), columns);
+
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < columns; i++) {
+            final byte[] column = new byte[row.readInt()];
+            row.readFully(column);
+
+            Assert.assertEquals(schema.getFieldNameByPosition(i), "col-" + i);
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(new String(column, "UTF-8"));
+        }
+
+        // The whole record has been read
+        Assert.assertEquals(row.getPosition(), data.length);
+        return line.toString();
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.hdfs.reader;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.action.hdfs.data.CloseableIterator;
+import com.ning.metrics.action.hdfs.data.Row;
+import com.ning.metrics.action.hdfs.data.RowCountCache;
+import com.ning.metrics.action.hdfs.data.RowFileContentsIteratorFactory;
+import com.ning.metrics.action.hdfs.data.parser.RowParser;
+import com.ning.metrics.action.hdfs.writer.LocalFileSystemAccessProvider;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.skife.config.ConfigurationObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestParallelContentDecoder
+{
+    private static final int FILES = 6;
+    // Several row batches per file: readers stay open until the files are consumed
+    private static final int LINES = 2500;
+
+    private final String root = System.getProperty("java.io.tmpdir") + "/action-core-content-decoder-" + System.currentTimeMillis();
+
+    private FileSystem fs;
+    private ActionCoreConfig config;
+    private RowFileContentsIteratorFactory factory;
+    private List<HdfsEntry> entries;
+    private ExecutorService executor;
+
+    @BeforeClass(alwaysRun = true)
+    public void setup() throws Exception
+    {
+        fs = new LocalFileSystemAccessProvider().get().get();
+
+        final Properties properties = new Properties();
+        // Decode whole files, no splits
+        properties.setProperty("action.decoder.split.size", "0");
+        config = new ConfigurationObjectFactory(properties).build(ActionCoreConfig.class);
+        factory = new RowFileContentsIteratorFactory(new RowParser(config), null, new RowCountCache(config), config);
+
+        Assert.assertTrue(new File(root).mkdirs());
+        for (int i = 0; i < FILES; i++) {
+            final OutputStream out = new FileOutputStream(new File(root, "file-" + i));
+            try {
+                for (int j = 0; j < LINES; j++) {
+                    out.write(String.format("%d-%d\n", i, j).getBytes("UTF-8"));
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        entries = new HdfsListing(fs, new Path(root), true, factory, false).getEntries();
+        Assert.assertEquals(entries.size(), FILES);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception
+    {
+        fs.delete(new Path(root), true);
+    }
+
+    @BeforeMethod(alwaysRun = true)
+    public void setupExecutor()
+    {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void shutdownExecutor()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test(groups = "fast", timeOut = 60000)
+    public void testOrdered() throws Exception
+    {
+        // Small buffers: decoders stop and resume many times
+        final ParallelContentDecoder decoder = new ParallelContentDecoder(executor, 4, 10);
+
+        final CloseableIterator<HdfsEntryContent> contents = decoder.decode(entries.iterator(), true);
+        for (final HdfsEntry entry : entries) {
+            Assert.assertTrue(contents.hasNext());
+            final HdfsEntryContent content = contents.next();
+            Assert.assertEquals(content.getEntry().getPath(), entry.getPath());
+            Assert.assertEquals(readAll(content.getContent()), expectedLines(entry));
+        }
+        Assert.assertFalse(contents.hasNext());
+        contents.close();
+
+        waitForReaders();
+    }
+
+    @Test(groups = "fast", timeOut = 60000)
+    public void testUnordered() throws Exception
+    {
+        final ParallelContentDecoder decoder = new ParallelContentDecoder(executor, 4, 10);
+
+        final Map<String, List<String>> actual = new HashMap<String, List<String>>();
+        final CloseableIterator<HdfsEntryContent> contents = decoder.decode(entries.iterator(), false);
+        while (contents.hasNext()) {
+            final HdfsEntryContent content = contents.next();
+            Assert.assertNull(actual.put(content.getEntry().getPath(), readAll(content.getContent())));
+        }
+        contents.close();
+
+        Assert.assertEquals(actual.size(), FILES);
+        for (final HdfsEntry entry : entries) {
+            Assert.assertEquals(actual.get(entry.getPath()), expectedLines(entry));
+        }
+        waitForReaders();
+    }
+
+    @Test(groups = "fast", timeOut = 60000)
+    public void testCloseReleasesReaders() throws Exception
+    {
+        final ParallelContentDecoder decoder = new ParallelContentDecoder(executor, 4, 10);
+
+        final CloseableIterator<HdfsEntryContent> contents = decoder.decode(entries.iterator(), true);
+        final Iterator<Row> firstContent = contents.next().getContent();
+        Assert.assertEquals(firstContent.next().toString(), expectedLines(entries.get(0)).get(0));
+
+        // Moving to the next entry cancels the previous one
+        final Iterator<Row> secondContent = contents.next().getContent();
+        Assert.assertEquals(secondContent.next().toString(), expectedLines(entries.get(1)).get(0));
+
+        Assert.assertTrue(factory.getOpenReaders() > 0);
+
+        contents.close();
+        waitForReaders();
+    }
+
+    @Test(groups = "fast", timeOut = 60000)
+    public void testSlowClientsDontStarveThePool() throws Exception
+    {
+        // A single worker thread for several requests, each decoding several files ahead of its client
+        executor.shutdownNow();
+        executor = Executors.newFixedThreadPool(1);
+        final ParallelContentDecoder decoder = new ParallelContentDecoder(executor, 4, 10);
+
+        final List<CloseableIterator<HdfsEntryContent>> requests = new ArrayList<CloseableIterator<HdfsEntryContent>>();
+        final List<Iterator<Row>> firstContents = new ArrayList<Iterator<Row>>();
+        for (int i = 0; i < 3; i++) {
+            final CloseableIterator<HdfsEntryContent> contents = decoder.decode(entries.iterator(), true);
+            requests.add(contents);
+
+            // Start decoding, without consuming the buffered rows
+            final Iterator<Row> content = contents.next().getContent();
+            Assert.assertEquals(content.next().toString(), expectedLines(entries.get(0)).get(0));
+            firstContents.add(content);
+        }
+
+        // Consume the requests in reverse order: the decoders of the first ones must not hold on to the worker
+        for (int i = requests.size() - 1; i >= 0; i--) {
+            final List<String> firstLines = readAll(firstContents.get(i));
+            Assert.assertEquals(firstLines, expectedLines(entries.get(0)).subList(1, LINES));
+
+            final CloseableIterator<HdfsEntryContent> contents = requests.get(i);
+            for (final HdfsEntry entry : entries.subList(1, FILES)) {
+                Assert.assertEquals(readAll(contents.next().getContent()), expectedLines(entry));
+            }
+            Assert.assertFalse(contents.hasNext());
+            contents.close();
+        }
+
+        waitForReaders();
+    }
+
+    @Test(groups = "fast", timeOut = 60000, expectedExceptions = NoClassDefFoundError.class)
+    public void testErrorsReachTheClient() throws Exception
+    {
+        final RowFileContentsIteratorFactory failingFactory = new RowFileContentsIteratorFactory(new RowParser(config), null, new RowCountCache(config), config)
+        {
+            @Override
+            public CloseableIterator<Row> build(final FileSystem fs, final FileStatus status, final boolean raw) throws IOException
+            {
+                return new CloseableIterator<Row>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return true;
+                    }
+
+                    @Override
+                    public Row next()
+                    {
+                        throw new NoClassDefFoundError("com/example/Missing");
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public void close()
+                    {
+                    }
+                };
+            }
+        };
+
+        final HdfsEntry entry = new HdfsEntry(fs, fs.getFileStatus(new Path(entries.get(0).getPath())), true, failingFactory);
+        final ParallelContentDecoder decoder = new ParallelContentDecoder(executor, 4, 10);
+        final CloseableIterator<HdfsEntryContent> contents = decoder.decode(Collections.singletonList(entry).iterator(), true);
+        try {
+            contents.next().getContent().hasNext();
+        }
+        finally {
+            contents.close();
+        }
+    }
+
+    private List<String> expectedLines(final HdfsEntry entry)
+    {
+        final String name = new Path(entry.getPath()).getName();
+        final int file = Integer.valueOf(name.substring(name.indexOf('-') + 1));
+
+        final List<String> lines = new ArrayList<String>(LINES);
+        for (int j = 0; j < LINES; j++) {
+            lines.add(String.format("%d-%d", file, j));
+        }
+
+        return lines;
+    }
+
+    private List<String> readAll(final Iterator<Row> content)
+    {
+        final List<String> rows = new ArrayList<String>();
+        while (content.hasNext()) {
+            rows.add(content.next().toString());
+        }
+
+        return rows;
+    }
+
+    /**
+     * Cancelled decoders release their reader asynchronously
+     */
+    private void waitForReaders() throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (factory.getOpenReaders() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(factory.getOpenReaders(), 0);
+    }
+}
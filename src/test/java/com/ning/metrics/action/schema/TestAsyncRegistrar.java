@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.metrics.action.schema;
+
+import com.ning.metrics.goodwill.access.GoodwillSchemaField;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestAsyncRegistrar
+{
+    private static final class FailingRegistrarFactory implements Callable<Registrar>
+    {
+        private final int failures;
+        private final AtomicInteger attempts = new AtomicInteger(0);
+
+        private FailingRegistrarFactory(final int failures)
+        {
+            this.failures = failures;
+        }
+
+        @Override
+        public Registrar call() throws Exception
+        {
+            if (attempts.incrementAndGet() <= failures) {
+                throw new IOException("Goodwill is down");
+            }
+
+            return new Registrar()
+            {
+                @Override
+                public String getCanonicalName(final String type)
+                {
+                    return "canonical-" + type;
+                }
+
+                @Override
+                public Collection<String> getAllTypes()
+                {
+                    return Collections.singletonList("myEvent");
+                }
+
+                @Override
+                public Map<Short, GoodwillSchemaField> getSchema(final String type)
+                {
+                    return null;
+                }
+
+                @Override
+                public ProjectionPlan getProjectionPlan(final String type)
+                {
+                    return null;
+                }
+            };
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testRetryUntilLoaded() throws Exception
+    {
+        final FailingRegistrarFactory factory = new FailingRegistrarFactory(3);
+        final AsyncRegistrar registrar = new AsyncRegistrar(factory, 10);
+
+        waitUntilLoaded(registrar);
+        Assert.assertEquals(factory.attempts.get(), 4);
+        Assert.assertEquals(registrar.getCanonicalName("myEvent"), "canonical-myEvent");
+        Assert.assertEquals(registrar.getAllTypes(), Collections.singletonList("myEvent"));
+
+        // The loader is stopped once connected
+        Assert.assertTrue(registrar.awaitLoader(5, TimeUnit.SECONDS));
+        Assert.assertEquals(factory.attempts.get(), 4);
+
+        registrar.close();
+    }
+
+    @Test(groups = "fast")
+    public void testDegradedModeWithoutRetries() throws Exception
+    {
+        final FailingRegistrarFactory factory = new FailingRegistrarFactory(1);
+        final AsyncRegistrar registrar = new AsyncRegistrar(factory, 0);
+
+        // Single attempt
+        Assert.assertTrue(registrar.awaitLoader(5, TimeUnit.SECONDS));
+        Assert.assertEquals(factory.attempts.get(), 1);
+        Assert.assertFalse(registrar.isLoaded());
+        // Behaves as the NoOpRegistrar
+        Assert.assertNull(registrar.getCanonicalName("myEvent"));
+        Assert.assertNull(registrar.getProjectionPlan("myEvent"));
+
+        registrar.close();
+    }
+
+    @Test(groups = "fast")
+    public void testCloseStopsRetries() throws Exception
+    {
+        final FailingRegistrarFactory factory = new FailingRegistrarFactory(Integer.MAX_VALUE);
+        final AsyncRegistrar registrar = new AsyncRegistrar(factory, 10);
+
+        waitForAttempts(factory, 2);
+        registrar.close();
+
+        // The retries are cancelled, instead of running until Goodwill is back
+        Assert.assertTrue(registrar.awaitLoader(5, TimeUnit.SECONDS));
+        Assert.assertFalse(registrar.isLoaded());
+    }
+
+    private void waitForAttempts(final FailingRegistrarFactory factory, final int attempts) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (factory.attempts.get() < attempts && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(factory.attempts.get() >= attempts);
+    }
+
+    private void waitUntilLoaded(final AsyncRegistrar registrar) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!registrar.isLoaded() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(registrar.isLoaded());
+    }
+}
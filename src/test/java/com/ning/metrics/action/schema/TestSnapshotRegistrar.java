@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2011 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.action.schema;
+
+import com.ning.metrics.action.binder.config.ActionCoreConfig;
+import com.ning.metrics.goodwill.access.GoodwillSchemaField;
+
+import org.skife.config.ConfigurationObjectFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public class TestSnapshotRegistrar
+{
+    private File snapshot;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws IOException
+    {
+        snapshot = File.createTempFile("goodwill-snapshot", ".smile");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        snapshot.delete();
+    }
+
+    @Test(groups = "fast")
+    public void testSnapshotRoundTrip() throws Exception
+    {
+        final Map<String, ProjectionPlan> plans = new HashMap<String, ProjectionPlan>();
+        plans.put("FrontDoorVisit", new ProjectionPlan("FrontDoorVisit", Arrays.asList(
+            new GoodwillSchemaField("visitId", "string", (short) 1, "visit id", null, null, null, null),
+            new GoodwillSchemaField("date", "date", (short) 2, "visit date", null, null, null, null),
+            new GoodwillSchemaField("duration", "i64", (short) 4, "visit duration", null, null, null, null)
+        )));
+        plans.put("Ping", new ProjectionPlan("Ping", Arrays.asList(
+            new GoodwillSchemaField("up", "bool", (short) 1, null, null, null, null, null)
+        )));
+
+        final Map<String, String> canonicalNames = new HashMap<String, String>();
+        canonicalNames.put("frontdoorvisit", "FrontDoorVisit");
+
+        SnapshotRegistrar.writeSnapshot(snapshot, new SnapshotRegistrar.Snapshot(plans, canonicalNames));
+        final SnapshotRegistrar.Snapshot content = SnapshotRegistrar.readSnapshot(snapshot);
+
+        Assert.assertEquals(content.canonicalNames, canonicalNames);
+        Assert.assertEquals(content.plans.keySet(), plans.keySet());
+        for (final ProjectionPlan plan : plans.values()) {
+            final ProjectionPlan readPlan = content.plans.get(plan.getName());
+            Assert.assertEquals(readPlan.getName(), plan.getName());
+            Assert.assertEquals(readPlan.getFields().keySet(), plan.getFields().keySet());
+
+            for (final GoodwillSchemaField field : plan.getFields().values()) {
+                final GoodwillSchemaField readField = readPlan.getFields().get(field.getId());
+                Assert.assertEquals(readField.getName(), field.getName());
+                Assert.assertEquals(readField.getId(), field.getId());
+                Assert.assertEquals(readField.getType(), field.getType());
+            }
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testResolveAliasesFromSnapshot() throws Exception
+    {
+        final Map<String, ProjectionPlan> plans = new HashMap<String, ProjectionPlan>();
+        plans.put("Ping", new ProjectionPlan("Ping", Arrays.asList(
+            new GoodwillSchemaField("up", "bool", (short) 1, null, null, null, null, null)
+        )));
+        final Map<String, String> canonicalNames = new HashMap<String, String>();
+        canonicalNames.put("ping", "Ping");
+        SnapshotRegistrar.writeSnapshot(snapshot, new SnapshotRegistrar.Snapshot(plans, canonicalNames));
+
+        final Properties properties = new Properties();
+        properties.setProperty("action.registrar.snapshot", snapshot.getPath());
+        final ActionCoreConfig config = new ConfigurationObjectFactory(properties).build(ActionCoreConfig.class);
+
+        final SnapshotRegistrar registrar = new SnapshotRegistrar(config);
+        try {
+            Assert.assertEquals(registrar.getCanonicalName("Ping"), "Ping");
+            Assert.assertEquals(registrar.getCanonicalName("ping"), "Ping");
+            // Goodwill disabled: unknown types can't be resolved
+            Assert.assertNull(registrar.getCanonicalName("pong"));
+
+            Assert.assertEquals(registrar.getProjectionPlan("ping").getName(), "Ping");
+            Assert.assertEquals(registrar.getSchema("ping").get((short) 1).getName(), "up");
+            Assert.assertNull(registrar.getProjectionPlan("pong"));
+        }
+        finally {
+            registrar.close();
+        }
+    }
+}